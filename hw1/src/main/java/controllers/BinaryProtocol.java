@@ -0,0 +1,165 @@
+package controllers;
+
+import java.nio.ByteBuffer;
+import models.GameBoard;
+import models.GameState;
+import models.Message;
+import models.Move;
+import models.Player;
+
+/**
+ * The binary frames of /gameboard?protocol=binary, for bots which play many games.
+ * Every frame starts with its kind, and numbers are big-endian.
+ * <pre>
+ * BOARD  (server) kind, version u32, size, winLength, flags, turn, winner, p1, p2, cells
+ * MOVE   (server) kind, version u32, x, y, mark, turn, winner, flags
+ * RESULT (server) kind, code u16
+ * PLAY   (client) kind, playerId, x, y
+ * RESYNC (client) kind
+ * </pre>
+ * A player is its type, 'X' or 'O', or 0 if absent. The flags hold gameStarted in bit 0
+ * and isDraw in bit 1. The cells take two bits each, row by row from the high bits of the
+ * first byte: 0 for empty, 1 for X and 2 for O. The text of a result follows from its code,
+ * as it does in Message.
+ */
+public final class BinaryProtocol {
+
+  public static final byte BOARD = 1;
+
+  public static final byte MOVE = 2;
+
+  public static final byte RESULT = 3;
+
+  public static final byte PLAY = 16;
+
+  public static final byte RESYNC = 17;
+
+  private static final int BOARD_HEADER_BYTES = 12;
+
+  private static final int MOVE_BYTES = 11;
+
+  private static final int PLAY_BYTES = 4;
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * Encode a whole gameBoard.
+   * @param version The version of the gameBoard
+   * @param gameBoard The gameBoard at that version
+   * @return The frame
+   */
+  public static byte[] encodeBoard(long version, GameState gameBoard) {
+    int size = gameBoard.getSize();
+    ByteBuffer frame = ByteBuffer.allocate(BOARD_HEADER_BYTES + (size * size + 3) / 4);
+    frame.put(BOARD);
+    frame.putInt((int) version);
+    frame.put((byte) size);
+    frame.put((byte) gameBoard.getWinLength());
+    frame.put(flags(gameBoard.getGamestarted(), gameBoard.getIsDraw()));
+    frame.put((byte) gameBoard.getTurn());
+    frame.put((byte) gameBoard.getWinner());
+    frame.put(type(gameBoard.getPlayer1()));
+    frame.put(type(gameBoard.getPlayer2()));
+    // A gameBoard which is not initialized yet has only empty cells.
+    for (int cell = 0; gameBoard.hasBoardState() && cell < size * size; cell++) {
+      int mark = gameBoard.getCell(cell / size, cell % size);
+      int bits = ('X' == mark) ? 1 : ('O' == mark) ? 2 : 0;
+      int index = BOARD_HEADER_BYTES + cell / 4;
+      frame.put(index, (byte) (frame.get(index) | bits << (6 - 2 * (cell % 4))));
+    }
+    return frame.array();
+  }
+
+  /**
+   * Decode a whole gameBoard.
+   * @param frame The frame, whose kind is BOARD
+   * @return The gameBoard
+   */
+  public static GameBoard decodeBoard(ByteBuffer frame) {
+    frame.get();
+    frame.getInt();
+    int size = frame.get() & 0xff;
+    GameBoard gameBoard = new GameBoard(size, frame.get() & 0xff);
+    byte flags = frame.get();
+    gameBoard.setGamestarted(0 != (flags & 1));
+    gameBoard.setIsDraw(0 != (flags & 2));
+    gameBoard.setTurn(frame.get());
+    gameBoard.setWinner(frame.get());
+    gameBoard.setPlayer1(player(frame.get(), 1));
+    gameBoard.setPlayer2(player(frame.get(), 2));
+    char[][] boardState = new char[size][size];
+    int start = frame.position();
+    for (int cell = 0; cell < size * size; cell++) {
+      int bits = frame.get(start + cell / 4) >> (6 - 2 * (cell % 4)) & 3;
+      boardState[cell / size][cell % size] = (1 == bits) ? 'X' : (2 == bits) ? 'O' : 0;
+    }
+    gameBoard.setBoardState(boardState);
+    return gameBoard;
+  }
+
+  /**
+   * Encode one move and what it did to the gameBoard.
+   * @param version The version which the move made
+   * @param move The move
+   * @param gameBoard The gameBoard after the move
+   * @return The frame
+   */
+  public static byte[] encodeMove(long version, Move move, GameState gameBoard) {
+    ByteBuffer frame = ByteBuffer.allocate(MOVE_BYTES);
+    frame.put(MOVE);
+    frame.putInt((int) version);
+    frame.put((byte) move.getMoveX());
+    frame.put((byte) move.getMoveY());
+    frame.put((byte) move.getPlayer().getType());
+    frame.put((byte) gameBoard.getTurn());
+    frame.put((byte) gameBoard.getWinner());
+    frame.put(flags(gameBoard.getGamestarted(), gameBoard.getIsDraw()));
+    return frame.array();
+  }
+
+  /**
+   * Encode the result of a move.
+   * @param message The result
+   * @return The frame
+   */
+  public static byte[] encodeResult(Message message) {
+    return ByteBuffer.allocate(3).put(RESULT).putShort((short) message.getCode()).array();
+  }
+
+  /**
+   * Encode a move which a client asks for.
+   * @param playerId The player who moves
+   * @param x Which row
+   * @param y Which column
+   * @return The frame
+   */
+  public static byte[] encodePlay(int playerId, int x, int y) {
+    return new byte[] {PLAY, (byte) playerId, (byte) x, (byte) y};
+  }
+
+  /**
+   * Decode a move which a client asks for.
+   * @param frame The frame, whose kind is PLAY
+   * @return The playerId, row and column, or null if the frame is too short
+   */
+  public static int[] decodePlay(ByteBuffer frame) {
+    if (frame.remaining() < PLAY_BYTES) {
+      return null;
+    }
+    int start = frame.position();
+    return new int[] {frame.get(start + 1), frame.get(start + 2), frame.get(start + 3)};
+  }
+
+  private static byte flags(boolean gameStarted, boolean isDraw) {
+    return (byte) ((gameStarted ? 1 : 0) | (isDraw ? 2 : 0));
+  }
+
+  private static byte type(Player player) {
+    return (null == player) ? 0 : (byte) player.getType();
+  }
+
+  private static Player player(byte type, int id) {
+    return (0 == type) ? null : new Player((char) type, id);
+  }
+}
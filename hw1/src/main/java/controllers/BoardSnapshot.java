@@ -0,0 +1,146 @@
+package controllers;
+
+import models.GameState;
+import models.Move;
+import utils.JsonEncoder;
+
+/**
+ * A version of a gameBoard, encoded once when it is published and shared by every reader.
+ * A version which one move made also carries that move as a delta frame, for the sessions
+ * which follow the game by deltas: {"version":7,"cell":[1,2],"mark":"X","turn":2,...}.
+ * Those sessions get the full frame, {"version":7,"board":{...}}, for any other change.
+ * The frames of the binary protocol are encoded alongside, since they are only a few bytes.
+ * The version itself is kept too, for the readers which need more than its encodings.
+ */
+public class BoardSnapshot {
+
+  // Part of every ETag, so a tag from before a restart never matches a new version.
+  private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+  private final long version;
+
+  private final GameState state;
+
+  private final String json;
+
+  private final byte[] bytes;
+
+  private final String etag;
+
+  // The frame of the move which made this version, or null if it was not one move.
+  private final String delta;
+
+  // The full frame, encoded when a session first needs it.
+  private volatile String fullFrame;
+
+  private final byte[] binaryBoard;
+
+  // The binary frame of the move which made this version, or null.
+  private final byte[] binaryMove;
+
+  /**
+   * The constructor.
+   * @param version The number of the version
+   * @param state The gameBoard at this version
+   * @param move The move which made this version, or null if the gameBoard changed otherwise
+   */
+  public BoardSnapshot(long version, GameState state, Move move) {
+    this.version = version;
+    this.state = state;
+    JsonEncoder encoder = JsonEncoder.local().writeGameState(state);
+    this.bytes = encoder.toByteArray();
+    this.json = encoder.toString();
+    this.etag = "\"" + EPOCH + "-" + version + "\"";
+    this.binaryBoard = BinaryProtocol.encodeBoard(version, state);
+    if (null == move) {
+      this.delta = null;
+      this.binaryMove = null;
+    } else {
+      this.delta = encodeDelta(version, move, state);
+      this.binaryMove = BinaryProtocol.encodeMove(version, move, state);
+    }
+  }
+
+  /**
+   * Encode the delta frame of a move.
+   * @param version The version which the move made
+   * @param move The move
+   * @param gameBoard The gameBoard after the move
+   * @return The frame
+   */
+  public static String encodeDelta(long version, Move move, GameState gameBoard) {
+    return "{\"version\":" + version
+        + ",\"cell\":[" + move.getMoveX() + "," + move.getMoveY() + "]"
+        + ",\"mark\":\"" + move.getPlayer().getType() + "\""
+        + ",\"turn\":" + gameBoard.getTurn()
+        + ",\"winner\":" + gameBoard.getWinner()
+        + ",\"isDraw\":" + gameBoard.getIsDraw() + "}";
+  }
+
+  /**
+   * Check whether a client already has this version.
+   * @param ifNoneMatch The If-None-Match header of the request, or null
+   * @return true if one of the tags in the header is this version's
+   */
+  public boolean matches(String ifNoneMatch) {
+    if (null == ifNoneMatch) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if ("*".equals(trimmed) || this.etag.equals(trimmed)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long getVersion() {
+    return this.version;
+  }
+
+  public GameState getState() {
+    return this.state;
+  }
+
+  public String getJson() {
+    return this.json;
+  }
+
+  public byte[] getBytes() {
+    return this.bytes;
+  }
+
+  public String getEtag() {
+    return this.etag;
+  }
+
+  public String getDelta() {
+    return this.delta;
+  }
+
+  public byte[] getBinaryBoard() {
+    return this.binaryBoard;
+  }
+
+  public byte[] getBinaryMove() {
+    return this.binaryMove;
+  }
+
+  /**
+   * Find the full frame of this version, which a delta session starts or resyncs from.
+   * @return The frame
+   */
+  public String getFullFrame() {
+    String frame = this.fullFrame;
+    if (null == frame) {
+      // Two sessions may encode it at once, which only wastes one of the copies.
+      frame = "{\"version\":" + this.version + ",\"board\":" + this.json + "}";
+      this.fullFrame = frame;
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,225 @@
+package controllers;
+
+import io.javalin.http.sse.SseClient;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The HTTP clients which wait for a game to change, for those which cannot use the web
+ * socket: long polls on /boardstatus?since=N and event streams on /game/:gameId/events.
+ * Neither holds a thread while it waits, since a poll is a pending future and a stream is
+ * an open async response. Both are answered on one thread of their own, so a move never
+ * waits for an HTTP client. When versions come faster than they are delivered, the
+ * waiting clients get only the newest.
+ */
+public class BoardWatchers {
+
+  private static final Logger logger = LoggerFactory.getLogger(BoardWatchers.class);
+
+  // Answers the polls and streams, and ends the polls which time out.
+  private final ScheduledThreadPoolExecutor executor;
+
+  // The waiting polls of each game, keyed by game id.
+  private final ConcurrentMap<String, Set<Poll>> polls = new ConcurrentHashMap<>();
+
+  // The open streams of each game, keyed by game id.
+  private final ConcurrentMap<String, Set<SseClient>> streams = new ConcurrentHashMap<>();
+
+  // The newest version of each game which has not been delivered yet.
+  private final ConcurrentMap<String, BoardSnapshot> pending = new ConcurrentHashMap<>();
+
+  // The polls and streams of every game, so that nothing is queued while nobody waits.
+  private final AtomicInteger watching = new AtomicInteger();
+
+  /**
+   * The constructor.
+   */
+  public BoardWatchers() {
+    this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread thread = new Thread(r, "board-watchers");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executor.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Wait until a game is newer than a version the client has.
+   * @param room The game
+   * @param since The version which the client has
+   * @param timeoutMs How long in milliseconds to wait
+   * @return The first version newer than since, or the current version if none came in time
+   */
+  public CompletableFuture<BoardSnapshot> poll(GameRoom room, long since, long timeoutMs) {
+    Poll poll = new Poll(room, since);
+    // Scheduled first, so a poll is only registered once it is sure to end.
+    ScheduledFuture<?> timeout = this.executor.schedule(
+        () -> poll.future.complete(room.getSnapshot()), timeoutMs, TimeUnit.MILLISECONDS);
+    // Under the lock, so no version is published between the check and the registration.
+    room.getLock().lock();
+    try {
+      BoardSnapshot snapshot = room.getSnapshot();
+      if (snapshot.getVersion() > since) {
+        timeout.cancel(false);
+        return CompletableFuture.completedFuture(snapshot);
+      }
+      this.watching.incrementAndGet();
+      this.polls.computeIfAbsent(room.getGameId(), id -> ConcurrentHashMap.newKeySet()).add(poll);
+    } finally {
+      room.getLock().unlock();
+    }
+    poll.future.whenComplete((snapshot, e) -> {
+      timeout.cancel(false);
+      if (this.polls.get(room.getGameId()).remove(poll)) {
+        this.watching.decrementAndGet();
+      }
+    });
+    return poll.future;
+  }
+
+  /**
+   * Send every version of a game to an event stream, starting with the current one.
+   * @param room The game
+   * @param client The stream
+   * @param lastEventId The version which a reconnecting client had, or null
+   */
+  public void stream(GameRoom room, SseClient client, String lastEventId) {
+    String gameId = room.getGameId();
+    this.watching.incrementAndGet();
+    client.onClose(() -> {
+      Set<SseClient> clients = this.streams.get(gameId);
+      if (null != clients && clients.remove(client)) {
+        this.watching.decrementAndGet();
+      }
+    });
+    room.getLock().lock();
+    try {
+      BoardSnapshot snapshot = room.getSnapshot();
+      // The stream joins on the delivering thread, so every later version reaches it
+      // after this one and none of them twice.
+      this.executor.execute(() -> {
+        this.streams.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(client);
+        if (!String.valueOf(snapshot.getVersion()).equals(lastEventId)) {
+          send(client, snapshot);
+        }
+      });
+    } finally {
+      room.getLock().unlock();
+    }
+  }
+
+  /**
+   * Queue a version of a game for its polls and streams, without waiting for any of them.
+   * It is called under the lock of the game, so versions are queued in order.
+   * @param gameId The id of the game
+   * @param snapshot The version
+   */
+  public void publish(String gameId, BoardSnapshot snapshot) {
+    if (0 == this.watching.get()) {
+      return;
+    }
+    // A delivery which is already queued takes the newer version instead.
+    if (null == this.pending.put(gameId, snapshot)) {
+      try {
+        this.executor.execute(() -> deliver(gameId));
+      } catch (RejectedExecutionException e) {
+        // The change itself must not fail because its watchers cannot be told.
+        this.pending.remove(gameId);
+        logger.error("Failed to queue a board for its watchers: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Answer the waiting polls with the current versions and end the streams, so that the
+   * server can stop without waiting for them. The thread is kept, like the game workers,
+   * so the watchers serve the server again when it is started in the same process.
+   */
+  public void close() {
+    for (Set<Poll> waiting : this.polls.values()) {
+      for (Poll poll : waiting) {
+        poll.future.complete(poll.room.getSnapshot());
+      }
+    }
+    for (Set<SseClient> clients : this.streams.values()) {
+      for (SseClient client : clients) {
+        if (clients.remove(client)) {
+          this.watching.decrementAndGet();
+        }
+        try {
+          client.ctx.req.getAsyncContext().complete();
+        } catch (IllegalStateException e) {
+          // The stream has already ended.
+        }
+      }
+    }
+  }
+
+  public int getPollCount() {
+    int count = 0;
+    for (Set<Poll> waiting : this.polls.values()) {
+      count += waiting.size();
+    }
+    return count;
+  }
+
+  public int getStreamCount() {
+    int count = 0;
+    for (Set<SseClient> clients : this.streams.values()) {
+      count += clients.size();
+    }
+    return count;
+  }
+
+  private void deliver(String gameId) {
+    BoardSnapshot snapshot = this.pending.remove(gameId);
+    if (null == snapshot) {
+      return;
+    }
+    Set<Poll> waiting = this.polls.get(gameId);
+    if (null != waiting) {
+      for (Poll poll : waiting) {
+        if (snapshot.getVersion() > poll.since) {
+          poll.future.complete(snapshot);
+        }
+      }
+    }
+    Set<SseClient> clients = this.streams.get(gameId);
+    if (null != clients) {
+      for (SseClient client : clients) {
+        send(client, snapshot);
+      }
+    }
+  }
+
+  private void send(SseClient client, BoardSnapshot snapshot) {
+    try {
+      client.sendEvent("board", snapshot.getJson(), String.valueOf(snapshot.getVersion()));
+    } catch (RuntimeException e) {
+      logger.error(e.getMessage());
+    }
+  }
+
+  // A client which waits for a version of room newer than since.
+  private static final class Poll {
+    private final GameRoom room;
+
+    private final long since;
+
+    private final CompletableFuture<BoardSnapshot> future = new CompletableFuture<>();
+
+    private Poll(GameRoom room, long since) {
+      this.room = room;
+      this.since = since;
+    }
+  }
+}
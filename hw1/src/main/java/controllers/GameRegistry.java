@@ -0,0 +1,90 @@
+package controllers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+import models.GameBoard;
+
+public class GameRegistry {
+
+  // The pattern of a valid game id, which keeps ids safe for URLs and SQL.
+  private static final Pattern GAME_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+  private final ConcurrentMap<String, GameRoom> rooms = new ConcurrentHashMap<>();
+
+  // The workers which run the commands of every game.
+  private final Executor workers;
+
+  /**
+   * The constructor, for games whose commands run on the threads which submit them.
+   */
+  public GameRegistry() {
+    this(Runnable::run);
+  }
+
+  /**
+   * The constructor.
+   * @param workers The workers which run the commands of every game
+   */
+  public GameRegistry(Executor workers) {
+    this.workers = workers;
+  }
+
+  /**
+   * Check whether the game id is well formed.
+   * @param gameId The id of the game
+   * @return true if the id can be used to register a game
+   */
+  public static boolean isValidGameId(String gameId) {
+    return null != gameId && GAME_ID_PATTERN.matcher(gameId).matches();
+  }
+
+  /**
+   * Find the game with the given id.
+   * @param gameId The id of the game
+   * @return The game, or null if no such game exists
+   */
+  public GameRoom get(String gameId) {
+    return this.rooms.get(gameId);
+  }
+
+  /**
+   * Find the game with the given id, creating an empty one if it does not exist.
+   * @param gameId The id of the game
+   * @return The game
+   */
+  public GameRoom getOrCreate(String gameId) {
+    return this.rooms.computeIfAbsent(gameId,
+        id -> new GameRoom(id, new GameBoard(), this.workers));
+  }
+
+  /**
+   * Replace all games with the recovered ones.
+   * @param gameBoards The gameBoards keyed by game id
+   */
+  public void load(Map<String, GameBoard> gameBoards) {
+    this.rooms.clear();
+    for (Map.Entry<String, GameBoard> entry : gameBoards.entrySet()) {
+      String gameId = entry.getKey();
+      this.rooms.put(gameId, new GameRoom(gameId, entry.getValue(), this.workers));
+    }
+  }
+
+  public int size() {
+    return this.rooms.size();
+  }
+
+  /**
+   * Count the commands which wait in the mailboxes of every game.
+   * @return The number of commands
+   */
+  public int getMailboxSize() {
+    int count = 0;
+    for (GameRoom room : this.rooms.values()) {
+      count += room.getMailboxSize();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,209 @@
+package controllers;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import models.GameBoard;
+import models.GameState;
+import models.Move;
+
+/**
+ * A game, which owns its gameBoard and changes it only by commands. The commands wait in
+ * the mailbox of the game and run one at a time, in the order they came, on one of the
+ * workers which every game shares. A request gets a future for what its command returns,
+ * so requests for different games never wait for each other.
+ */
+public class GameRoom {
+
+  // The most commands of one game which run before its worker moves on to another game.
+  private static final int COMMANDS_PER_TURN = 64;
+
+  // The id which identifies this game in the registry.
+  private final String gameId;
+
+  // The gameBoard for this game, replaced when a new game starts. Only the commands read
+  // or change it; everyone else reads the published versions.
+  private volatile GameBoard gameBoard;
+  
+  // The lock which guards every change to this game. The worker holds it while the
+  // commands run, so a reader which needs no version to be published in between takes it.
+  private final Lock lock = new ReentrantLock();
+  
+  // The commands which wait to run, in the order they were submitted.
+  private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+  
+  // The number of commands in the mailbox, which the queue itself can only count one by one.
+  private final AtomicInteger mailboxSize = new AtomicInteger();
+  
+  // Whether the commands of this game are queued on the workers or running.
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  
+  // The workers which run the commands of every game.
+  private final Executor workers;
+  
+  // The last published version of the gameBoard, or null before the first one.
+  // Readers take it without the lock; it is only replaced, never changed.
+  private volatile BoardSnapshot snapshot;
+  
+  // The number of the last published version, which only grows.
+  private long version;
+  
+  // Whether the computer plays player 2. Only the commands read or change it.
+  private boolean computerOpponent;
+
+  /**
+   * The constructor, for a game whose commands run on the thread which submits them.
+   * @param gameId The id of the game
+   * @param gameBoard The initial gameBoard
+   */
+  public GameRoom(String gameId, GameBoard gameBoard) {
+    this(gameId, gameBoard, Runnable::run);
+  }
+  
+  /**
+   * The constructor.
+   * @param gameId The id of the game
+   * @param gameBoard The initial gameBoard
+   * @param workers The workers which run the commands
+   */
+  public GameRoom(String gameId, GameBoard gameBoard, Executor workers) {
+    this.gameId = gameId;
+    this.gameBoard = gameBoard;
+    this.workers = workers;
+  }
+
+  public String getGameId() {
+    return this.gameId;
+  }
+
+  public GameBoard getGameBoard() {
+    return this.gameBoard;
+  }
+
+  public void setGameBoard(GameBoard gameBoard) {
+    this.gameBoard = gameBoard;
+  }
+  
+  public boolean hasComputerOpponent() {
+    return this.computerOpponent;
+  }
+  
+  public void setComputerOpponent(boolean computerOpponent) {
+    this.computerOpponent = computerOpponent;
+  }
+  
+  public Lock getLock() {
+    return this.lock;
+  }
+  
+  /**
+   * Queue a command, which runs after every command submitted before it.
+   * Whatever the command throws completes the result; an Error is thrown on as well.
+   * @param command The command, which may change the gameBoard and publish it
+   * @param <T> The type of the result
+   * @return The result of the command, once it has run
+   */
+  public <T> CompletableFuture<T> submit(Supplier<T> command) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    this.mailboxSize.incrementAndGet();
+    this.mailbox.add(() -> {
+      try {
+        future.complete(command.get());
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      } catch (Error e) {
+        future.completeExceptionally(e);
+        throw e;
+      }
+    });
+    schedule();
+    return future;
+  }
+  
+  public int getMailboxSize() {
+    return this.mailboxSize.get();
+  }
+  
+  // Give the game a turn on the workers, unless it has one already.
+  private void schedule() {
+    if (!this.mailbox.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+      this.workers.execute(this::run);
+    }
+  }
+  
+  // Run the waiting commands, and let the other games have the worker after a few of them.
+  private void run() {
+    this.lock.lock();
+    try {
+      for (int n = 0; n < COMMANDS_PER_TURN; n++) {
+        Runnable command = this.mailbox.poll();
+        if (null == command) {
+          break;
+        }
+        this.mailboxSize.decrementAndGet();
+        command.run();
+      }
+    } finally {
+      this.lock.unlock();
+      this.scheduled.set(false);
+      // A command submitted after the last poll may have found the turn still scheduled,
+      // and the commands after one which threw an Error still have to run.
+      schedule();
+    }
+  }
+  
+  /**
+   * Encode the gameBoard as a new version. The caller is a command, or holds the lock, and
+   * has just changed the gameBoard, which is then encoded once for every reader.
+   * @return The new version
+   */
+  public BoardSnapshot publish() {
+    return publish(null);
+  }
+  
+  /**
+   * Encode the gameBoard as a new version which one move made, with the delta of the move.
+   * Every change to the gameBoard is published, so the version before a move differs from
+   * the gameBoard only by the move, and the new version copies just the moved row of it.
+   * @param move The move, or null if the gameBoard changed in another way
+   * @return The new version
+   */
+  public BoardSnapshot publish(Move move) {
+    BoardSnapshot previous = this.snapshot;
+    GameState state = (null == move || null == previous) ? GameState.of(this.gameBoard)
+        : previous.getState().next(this.gameBoard, move);
+    this.snapshot = new BoardSnapshot(++this.version, state, move);
+    return this.snapshot;
+  }
+  
+  /**
+   * Find the last published version of the gameBoard, without the lock.
+   * @return The version
+   */
+  public GameState getState() {
+    return getSnapshot().getState();
+  }
+  
+  /**
+   * Find the last published version of the gameBoard, publishing the first one if needed.
+   * @return The version
+   */
+  public BoardSnapshot getSnapshot() {
+    BoardSnapshot current = this.snapshot;
+    if (null != current) {
+      return current;
+    }
+    this.lock.lock();
+    try {
+      return (null == this.snapshot) ? publish() : this.snapshot;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+}
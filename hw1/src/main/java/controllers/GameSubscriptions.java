@@ -0,0 +1,379 @@
+package controllers;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.javalin.websocket.WsBinaryMessageContext;
+import io.javalin.websocket.WsHandler;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import models.Message;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.JsonEncoder;
+import utils.MyDatabase;
+
+/**
+ * Attach every session on /gameboard to the game it watches, so a change is sent
+ * only to the audience of its game. A session names its game and role when it connects,
+ * e.g. /gameboard?gameId=g1&amp;role=spectator; without them it plays the default game.
+ * Every session has an outbox, so a slow session never holds up the others.
+ * A session which connects with protocol=delta gets the full board at once and then one
+ * delta per move; it sends "resync" to get the full board again when it misses a version.
+ * A session which connects with protocol=binary gets the frames of BinaryProtocol instead.
+ * A player moves on its own session, without an HTTP request per move: a JSON session
+ * sends {"type":"move","playerId":1,"x":0,"y":2} and a binary session sends a PLAY frame.
+ * Each move is answered on the same session with its Message, after the board it made.
+ * A spectator is refused with code 303, since its session only follows the game, and a move
+ * which the game fails to make is answered with code 501.
+ * The full board which a delta or binary session needs is queued by a command of its game,
+ * so the moves after it follow it and no Jetty thread waits for the game.
+ * The protocol is a query parameter, since Javalin does not let a handler choose one of
+ * the subprotocols which a client offers.
+ */
+public class GameSubscriptions implements Consumer<WsHandler> {
+
+  private static final Logger logger = LoggerFactory.getLogger(GameSubscriptions.class);
+
+  private static final Gson gson = new Gson();
+
+  /**
+   * What a session does in its game.
+   */
+  public enum Role {
+    PLAYER, SPECTATOR
+  }
+
+  /**
+   * How a session follows its game: the whole board in JSON for every change,
+   * a JSON delta per move, or a binary frame per move.
+   */
+  public enum Protocol {
+    JSON, DELTA, BINARY;
+
+    /**
+     * Find the protocol which a session asks for.
+     * @param name The protocol query parameter, or null
+     * @return The protocol, which is JSON unless another one is named
+     */
+    public static Protocol of(String name) {
+      if ("delta".equals(name)) {
+        return DELTA;
+      }
+      return "binary".equals(name) ? BINARY : JSON;
+    }
+  }
+
+  // The outboxes of the subscribers of each game, keyed by game id.
+  private final ConcurrentMap<String, ConcurrentMap<Session, SessionOutbox>> games =
+      new ConcurrentHashMap<>();
+
+  // The game of each session, so that a closed session is found without a scan.
+  private final ConcurrentMap<Session, String> gameIds = new ConcurrentHashMap<>();
+
+  private final OutboxStats stats = new OutboxStats();
+
+  /**
+   * Make a move which a session asks for.
+   */
+  public interface MoveHandler {
+
+    /**
+     * Make a move.
+     * @param room The game
+     * @param playerId The player who wants to move
+     * @param x Which row
+     * @param y Which column
+     * @return The message of the move, once the game has made it
+     */
+    CompletableFuture<Message> move(GameRoom room, int playerId, int x, int y);
+  }
+
+  // The games, whose boards a delta session starts from.
+  private final GameRegistry registry;
+
+  private final MoveHandler moves;
+
+  // The most frames which wait in an outbox.
+  private final int outboxLimit;
+
+  // How long in milliseconds a write may take before its session is closed.
+  private final long graceMs;
+
+  /**
+   * The constructor.
+   * @param registry The games
+   * @param moves Makes the moves of the binary sessions
+   * @param outboxLimit The most frames which wait in the outbox of a session
+   * @param graceMs How long in milliseconds a write may take before its session is closed
+   */
+  public GameSubscriptions(GameRegistry registry, MoveHandler moves, int outboxLimit,
+      long graceMs) {
+    this.registry = registry;
+    this.moves = moves;
+    this.outboxLimit = outboxLimit;
+    this.graceMs = graceMs;
+  }
+
+  @Override
+  public void accept(final WsHandler t) {
+    t.onConnect(ctx -> {
+      String gameId = ctx.queryParam("gameId", MyDatabase.DEFAULT_GAME_ID);
+      if (!GameRegistry.isValidGameId(gameId)) {
+        ctx.session.close(StatusCode.POLICY_VIOLATION, "This game id is invalid.");
+        return;
+      }
+      Role role = "spectator".equalsIgnoreCase(ctx.queryParam("role"))
+          ? Role.SPECTATOR : Role.PLAYER;
+      Protocol protocol = Protocol.of(ctx.queryParam("protocol"));
+      SessionOutbox outbox = subscribe(gameId, ctx.session, role, protocol);
+      GameRoom room = this.registry.get(gameId);
+      // Without a game, the session gets the full board once a player joins it.
+      if (null != room && Protocol.JSON != protocol) {
+        sendFull(room, outbox);
+      }
+    });
+    t.onMessage(ctx -> {
+      String message = ctx.message();
+      if ("resync".equals(message)) {
+        resync(ctx.session);
+      } else if (message.startsWith("{")) {
+        command(ctx.session, message);
+      }
+    });
+    t.onBinaryMessage(this::command);
+    t.onClose(ctx -> unsubscribe(ctx.session));
+  }
+
+  /**
+   * Answer a JSON command. A missing coordinate is out of bound, as it is over HTTP.
+   * @param session The session which sent the command
+   * @param text The command
+   */
+  private void command(Session session, String text) {
+    Command command;
+    try {
+      command = gson.fromJson(text, Command.class);
+    } catch (JsonParseException e) {
+      logger.warn("Ignoring a command which is not JSON.");
+      return;
+    }
+    if (null == command || !"move".equals(command.type)) {
+      return;
+    }
+    reply(session, play(session, command.playerId, command.x, command.y), false);
+  }
+
+  /**
+   * Answer a command of the binary protocol.
+   * @param ctx The context of the frame
+   */
+  private void command(WsBinaryMessageContext ctx) {
+    if (0 == ctx.length()) {
+      return;
+    }
+    ByteBuffer frame = ByteBuffer.wrap(ctx.data(), ctx.offset(), ctx.length());
+    byte kind = frame.get(frame.position());
+    if (BinaryProtocol.RESYNC == kind) {
+      resync(ctx.session);
+    } else if (BinaryProtocol.PLAY == kind) {
+      int[] play = BinaryProtocol.decodePlay(frame);
+      if (null == play) {
+        return;
+      }
+      reply(ctx.session, play(ctx.session, play[0], play[1], play[2]), true);
+    }
+  }
+
+  /**
+   * Answer a move on its session once the game has made it, or with code 501 if the game
+   * failed to make it.
+   * @param session The session which asked for the move
+   * @param result The message of the move, which is null if the session watches no game
+   * @param binary Whether the session follows the binary protocol
+   */
+  private void reply(Session session, CompletableFuture<Message> result, boolean binary) {
+    result.whenComplete((message, e) -> {
+      if (null != e) {
+        logger.error("Failed to make the move of a session.", e);
+      }
+      Message answer = (null == e) ? message : new Message(501);
+      SessionOutbox outbox = getOutbox(session);
+      if (null == answer || null == outbox) {
+        return;
+      }
+      if (binary) {
+        outbox.reply(BinaryProtocol.encodeResult(answer));
+      } else {
+        outbox.reply(JsonEncoder.toJson(answer));
+      }
+    });
+  }
+
+  /**
+   * Make a move in the game of a session. The board which the move makes is queued
+   * for every subscriber before the move completes, so the session gets it before the reply.
+   * @param session The session
+   * @param playerId The player who wants to move
+   * @param x Which row
+   * @param y Which column
+   * @return The message of the move, which is null if the session watches no game
+   */
+  private CompletableFuture<Message> play(Session session, int playerId, int x, int y) {
+    SessionOutbox outbox = getOutbox(session);
+    if (null != outbox && Role.SPECTATOR == outbox.getRole()) {
+      return CompletableFuture.completedFuture(new Message(303));
+    }
+    String gameId = getGameId(session);
+    GameRoom room = (null == gameId) ? null : this.registry.get(gameId);
+    return (null == room) ? CompletableFuture.completedFuture(null)
+        : this.moves.move(room, playerId, x, y);
+  }
+
+  /**
+   * Attach a session to a game, leaving the game it watched before.
+   * @param gameId The id of the game
+   * @param session The session
+   * @param role What the session does in the game
+   * @param protocol How the session follows the game
+   * @return The outbox of the session
+   */
+  public SessionOutbox subscribe(String gameId, Session session, Role role,
+      Protocol protocol) {
+    unsubscribe(session);
+    SessionOutbox outbox =
+        new SessionOutbox(session, role, protocol, this.outboxLimit, this.graceMs, this.stats);
+    this.gameIds.put(session, gameId);
+    this.games.compute(gameId, (id, subscribers) -> {
+      ConcurrentMap<Session, SessionOutbox> joined =
+          (null == subscribers) ? new ConcurrentHashMap<>() : subscribers;
+      joined.put(session, outbox);
+      return joined;
+    });
+    return outbox;
+  }
+
+  /**
+   * Detach a session from its game.
+   * @param session The session
+   */
+  public void unsubscribe(Session session) {
+    String gameId = this.gameIds.remove(session);
+    if (null == gameId) {
+      return;
+    }
+    // Drop the game once its last subscriber leaves. Joining also goes through compute,
+    // so a session never joins a map which has just been dropped.
+    this.games.computeIfPresent(gameId, (id, subscribers) -> {
+      SessionOutbox outbox = subscribers.remove(session);
+      if (null != outbox) {
+        outbox.close();
+      }
+      return subscribers.isEmpty() ? null : subscribers;
+    });
+  }
+
+  /**
+   * Queue a version of a board for every session which watches its game,
+   * without waiting for any of them.
+   * @param gameId The id of the game
+   * @param snapshot The version
+   */
+  public void broadcast(String gameId, BoardSnapshot snapshot) {
+    for (SessionOutbox outbox : getSubscribers(gameId)) {
+      outbox.offer(snapshot);
+    }
+  }
+
+  /**
+   * Send the full board to a session which has missed a version.
+   * @param session The session
+   */
+  public void resync(Session session) {
+    String gameId = this.gameIds.get(session);
+    GameRoom room = (null == gameId) ? null : this.registry.get(gameId);
+    SessionOutbox outbox = getOutbox(session);
+    if (null == room || null == outbox) {
+      return;
+    }
+    sendFull(room, outbox);
+  }
+
+  // Queue the full board by a command of the game, so no move is published between the
+  // board and the deltas after it.
+  private static void sendFull(GameRoom room, SessionOutbox outbox) {
+    room.submit(() -> {
+      BoardSnapshot snapshot = room.getSnapshot();
+      if (null != snapshot) {
+        outbox.offerFull(snapshot);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Find the outboxes of the sessions which watch a game.
+   * @param gameId The id of the game
+   * @return The outboxes, which may change while they are iterated
+   */
+  public Collection<SessionOutbox> getSubscribers(String gameId) {
+    Map<Session, SessionOutbox> subscribers = this.games.get(gameId);
+    return (null == subscribers) ? Collections.emptySet() : subscribers.values();
+  }
+
+  /**
+   * Find the outbox of a session.
+   * @param session The session
+   * @return The outbox, or null if the session watches no game
+   */
+  public SessionOutbox getOutbox(Session session) {
+    String gameId = this.gameIds.get(session);
+    Map<Session, SessionOutbox> subscribers = (null == gameId) ? null : this.games.get(gameId);
+    return (null == subscribers) ? null : subscribers.get(session);
+  }
+
+  /**
+   * Find the game of a session.
+   * @param session The session
+   * @return The id of the game, or null if the session watches no game
+   */
+  public String getGameId(Session session) {
+    return this.gameIds.get(session);
+  }
+
+  /**
+   * Find the role of a session.
+   * @param session The session
+   * @return The role, or null if the session watches no game
+   */
+  public Role getRole(Session session) {
+    SessionOutbox outbox = getOutbox(session);
+    return (null == outbox) ? null : outbox.getRole();
+  }
+
+  public int size() {
+    return this.gameIds.size();
+  }
+
+  public OutboxStats getStats() {
+    return this.stats;
+  }
+
+  // A command which a JSON session sends.
+  private static class Command {
+    private String type;
+
+    private int playerId;
+
+    private int x = -1;
+
+    private int y = -1;
+  }
+}
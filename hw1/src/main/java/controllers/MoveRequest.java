@@ -0,0 +1,34 @@
+package controllers;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read the body of a move request, which is in the form of "x=0&amp;y=0".
+ */
+public final class MoveRequest {
+
+  // The regular expression pattern for extracting the information of move request.
+  private static final Pattern NUMBER = Pattern.compile("[-]*\\d+");
+
+  private MoveRequest() {
+  }
+
+  /**
+   * Read the row and the column of a move. A number which is missing is read as -1,
+   * which the gameBoard refuses as outside of the board.
+   * @param body The body of the request
+   * @return The row and the column
+   */
+  public static int[] parse(String body) {
+    int[] cell = {-1, -1};
+    Matcher matcher = NUMBER.matcher(body);
+    if (matcher.find()) {
+      cell[0] = Integer.parseInt(matcher.group());
+    }
+    if (matcher.find()) {
+      cell[1] = Integer.parseInt(matcher.group());
+    }
+    return cell;
+  }
+}
@@ -0,0 +1,42 @@
+package controllers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters shared by the outboxes of every session.
+ */
+public class OutboxStats {
+
+  // The frames which wait in an outbox, or are being written.
+  private final AtomicLong queuedFrames = new AtomicLong();
+
+  // The frames which were replaced by a newer board, or pushed out of a full outbox.
+  private final AtomicLong droppedFrames = new AtomicLong();
+
+  // The sessions which were closed for being too slow.
+  private final AtomicLong evictedSessions = new AtomicLong();
+
+  void queued(long frames) {
+    this.queuedFrames.addAndGet(frames);
+  }
+
+  void dropped(long frames) {
+    this.droppedFrames.addAndGet(frames);
+  }
+
+  void evicted() {
+    this.evictedSessions.incrementAndGet();
+  }
+
+  public long getQueuedFrames() {
+    return this.queuedFrames.get();
+  }
+
+  public long getDroppedFrames() {
+    return this.droppedFrames.get();
+  }
+
+  public long getEvictedSessions() {
+    return this.evictedSessions.get();
+  }
+}
@@ -2,21 +2,35 @@ package controllers;
 
 import com.google.gson.Gson;
 import io.javalin.Javalin;
-import java.io.IOException;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.sql.Connection;
-import java.util.Queue;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import models.GameAnalyzer;
 import models.GameBoard;
+import models.GameState;
 import models.Message;
+import models.MonteCarloBot;
 import models.Move;
+import models.PerfectPlay;
 import models.Player;
-import org.eclipse.jetty.websocket.api.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import utils.ConnectionPool;
+import utils.GameStore;
+import utils.JsonEncoder;
+import utils.MoveJournal;
 import utils.MyDatabase;
+import utils.SqliteGameStore;
+import utils.WriteBehindWriter;
 
 
 public class PlayGame {
@@ -25,8 +39,71 @@ public class PlayGame {
 
   private static Javalin app;
   
-  // The gameBoard for current game.
-  private static GameBoard gameBoard;
+  // The number of workers which run the commands of every game.
+  private static final int GAME_WORKERS = Integer.getInteger("tictactoe.gameWorkers",
+      Runtime.getRuntime().availableProcessors());
+  
+  // The workers, on which each game runs its commands one at a time.
+  private static ExecutorService workers = Executors.newFixedThreadPool(GAME_WORKERS, r -> {
+    Thread thread = new Thread(r, "game-worker");
+    thread.setDaemon(true);
+    return thread;
+  });
+  
+  // The number of threads which write the responses of asynchronous requests.
+  private static final int RESPONDERS = Integer.getInteger("tictactoe.responders", 4);
+  
+  // The threads which write the responses, once the results are ready.
+  private static ExecutorService responders = Executors.newFixedThreadPool(RESPONDERS, r -> {
+    Thread thread = new Thread(r, "responder");
+    thread.setDaemon(true);
+    return thread;
+  });
+  
+  // The games hosted by this server, keyed by game id.
+  private static GameRegistry registry = new GameRegistry(workers);
+  
+  // The most frames which wait to be sent to one session.
+  private static final int OUTBOX_FRAMES = Integer.getInteger("tictactoe.outboxFrames", 64);
+  
+  // How long in milliseconds a session may take to receive a frame before it is closed.
+  private static final int SLOW_CONSUMER_MS = Integer.getInteger("tictactoe.slowConsumerMs", 5000);
+  
+  // The sessions on /gameboard, attached to the game each of them watches.
+  private static GameSubscriptions subscriptions =
+      new GameSubscriptions(registry, PlayGame::move, OUTBOX_FRAMES, SLOW_CONSUMER_MS);
+  
+  // The HTTP clients which wait for a game to change.
+  private static BoardWatchers watchers = new BoardWatchers();
+  
+  // The longest time in milliseconds which a poll on /boardstatus?since= waits.
+  private static final int POLL_TIMEOUT_MS = Integer.getInteger("tictactoe.pollTimeoutMs", 30000);
+  
+  // The number of threads which analyze positions.
+  private static final int ANALYSTS = Integer.getInteger("tictactoe.analysts",
+      Runtime.getRuntime().availableProcessors());
+  
+  // The most positions which the analyses keep for one another.
+  private static final int ANALYSIS_POSITIONS =
+      Integer.getInteger("tictactoe.analysisPositions", 1 << 18);
+  
+  // How long in milliseconds an analysis searches, unless the request asks for less.
+  private static final int ANALYSIS_MS = Integer.getInteger("tictactoe.analysisMs", 1000);
+  
+  // The threads which search positions, for the analyses and for the computer.
+  private static ForkJoinPool analysts = new ForkJoinPool(ANALYSTS);
+  
+  // Search the positions of every game in parallel, sharing what each search finds.
+  private static GameAnalyzer analyzer = new GameAnalyzer(analysts, ANALYSIS_POSITIONS);
+  
+  // The playouts which the computer makes for a move on a board larger than 3x3.
+  private static final int PLAYOUTS = Integer.getInteger("tictactoe.playouts", 20000);
+  
+  // The longest time in milliseconds which the computer thinks about a move.
+  private static final int BOT_MS = Integer.getInteger("tictactoe.botMs", 2000);
+  
+  // The computer on the boards which the table does not cover, with a tree on each analyst.
+  private static MonteCarloBot bot = new MonteCarloBot(analysts, ANALYSTS, PLAYOUTS, BOT_MS);
   
   // Transform object to JSON file and vice versa.
   private static Gson gson = new Gson();
@@ -34,30 +111,69 @@ public class PlayGame {
   // The logger to record exception information.
   private static final Logger logger = LoggerFactory.getLogger(PlayGame.class);
   
-  // The regular expression pattern for extracting the information of move request.
-  private static Pattern p = Pattern.compile("[-]*\\d+");
-
+  // The opponent query parameter which lets the computer join a game.
+  private static final String COMPUTER = "computer";
+  
   // The database which used to store the state.
   private static MyDatabase db = new MyDatabase();
   
-  private static Connection conn = db.createConnection();
+  // The number of read-only connections for recovery, history and stats.
+  private static final int READER_CONNECTIONS = Integer.getInteger("tictactoe.readers", 4);
   
-  private static Lock lock = new ReentrantLock();
+  // The size of the WAL in pages at which the server checkpoints it.
+  private static final int CHECKPOINT_PAGES = Integer.getInteger("tictactoe.checkpointPages", 1000);
+  
+  // Whether the games are stored in the journal instead of the database.
+  private static final boolean JOURNAL_STORAGE =
+      "journal".equals(System.getProperty("tictactoe.storage", "sqlite"));
+  
+  // The directory of the journal segments.
+  private static final String JOURNAL_DIR = System.getProperty("tictactoe.journalDir", "journal");
+  
+  // The size of a journal segment in bytes.
+  private static final int JOURNAL_SEGMENT_BYTES =
+      Integer.getInteger("tictactoe.journalSegmentBytes", 64 << 20);
+  
+  // The shortest time in milliseconds between two fsyncs of the journal.
+  private static final int FSYNC_INTERVAL_MS = Integer.getInteger("tictactoe.fsyncIntervalMs", 0);
+  
+  // The database connections, or null if the games are stored in the journal.
+  private static ConnectionPool pool = JOURNAL_STORAGE ? null
+      : new ConnectionPool(db, "4156.db", READER_CONNECTIONS, CHECKPOINT_PAGES);
+  
+  private static Connection conn = (null == pool) ? null : pool.getWriter();
+  
+  private static GameStore store = (null == pool)
+      ? new MoveJournal(new File(JOURNAL_DIR), JOURNAL_SEGMENT_BYTES, FSYNC_INTERVAL_MS)
+      : new SqliteGameStore(db, pool);
+  
+  // The longest time in milliseconds before an accepted change is committed.
+  private static final int FLUSH_INTERVAL_MS = Integer.getInteger("tictactoe.flushIntervalMs", 10);
+  
+  // The most changes which can wait for the writer before requests block.
+  private static final int WRITE_QUEUE_SIZE = Integer.getInteger("tictactoe.writeQueueSize", 65536);
+  
+  // The number of stored changes after which every game is snapshotted.
+  private static final int SNAPSHOT_EVERY = Integer.getInteger("tictactoe.snapshotEvery", 100000);
+  
+  // Persist the changes of every game in the background, which is the only user of the store.
+  private static WriteBehindWriter writer =
+      new WriteBehindWriter(store, FLUSH_INTERVAL_MS, WRITE_QUEUE_SIZE, SNAPSHOT_EVERY);
   
   /** Main method of the application.
    * @param args Command line arguments
    */
   public static void main(final String[] args) {
-    lock.lock();
-    try {
+    if (null != conn) {
       db.tryCreateTable(conn, "move");
       db.tryCreateTable(conn, "gameBoard");
-      gameBoard = db.recoverFromDatabase(conn);
       db.commit(conn);
-    } finally {
-      lock.unlock();
     }
-    System.out.println(gson.toJson(gameBoard));
+    registry.load(writer.recover());
+    writer.start();
+    logger.info("The computer opponent knows {} positions.", PerfectPlay.getPositionCount());
+    GameRoom defaultRoom = registry.getOrCreate(MyDatabase.DEFAULT_GAME_ID);
+    System.out.println(defaultRoom.getSnapshot().getJson());
     
     app = Javalin.create(config -> {
       config.addStaticFiles("/public");
@@ -70,125 +186,476 @@ public class PlayGame {
     
     // New game
     app.get("/newgame", ctx -> {
-      lock.lock();
-      try {
-        db.cleanTable(conn);
-        gameBoard = new GameBoard();
-        db.commit(conn);
-      } finally {
-        lock.unlock();
-      }
-      
-      System.out.println(gson.toJson(gameBoard));
-      ctx.redirect("tictactoe.html");
+      respond(ctx, newGame(MyDatabase.DEFAULT_GAME_ID, new GameBoard()).thenApply(snapshot -> {
+        ctx.redirect("tictactoe.html");
+        return "";
+      }));
     });
     
     //Start game
     app.post("/startgame", ctx -> {
-      gameBoard.init();
-      char type = (ctx.body().charAt(5));
-      String result;
-      if (gameBoard.startGame(type)) {
-        result = gson.toJson(gameBoard);
-      } else {
-        result = "This type is invalid.";
-      }
-      lock.lock();
-      try {
-        db.updateGameBoard(conn, gameBoard);
-        db.commit(conn);
-      } finally {
-        lock.unlock();
-      }
-      ctx.result(result);
+      respond(ctx, startGame(registry.get(MyDatabase.DEFAULT_GAME_ID), ctx.body()));
     });
     
     //Show current status of gameBoard
     app.get("/boardstatus", ctx -> {
-      ctx.result(gson.toJson(gameBoard));
+      sendBoardStatus(ctx, registry.get(MyDatabase.DEFAULT_GAME_ID));
+    });
+    
+    // Stream every version of the gameBoard.
+    app.sse("/events", client -> {
+      streamBoard(client, registry.get(MyDatabase.DEFAULT_GAME_ID));
     });
     
     //Another player join the game.
+    // With opponent=computer the computer joins instead, and player 1 goes back to the game.
     app.get("/joingame", ctx -> {
-      gameBoard.joinGame();
-      
-      lock.lock();
-      try {
-        db.updateGameBoard(conn, gameBoard);
-        db.commit(conn);
-      } finally {
-        lock.unlock();
-      }
-      ctx.redirect("/tictactoe.html?p=2");
-      sendGameBoardToAllPlayers(gson.toJson(gameBoard));
+      boolean computer = COMPUTER.equals(ctx.queryParam("opponent"));
+      GameRoom room = registry.get(MyDatabase.DEFAULT_GAME_ID);
+      respond(ctx, joinGame(room, computer).thenApply(json -> {
+        ctx.redirect(computer ? "/tictactoe.html?p=1" : "/tictactoe.html?p=2");
+        return "";
+      }));
     });
     
     //Player ask to move.
     app.post("/move/:playerId", ctx -> {
-      int i = -1;
-      int j = -1;
-      Matcher matcher = p.matcher(ctx.body());
-      if (matcher.find()) {
-        i = Integer.parseInt(matcher.group());
+      int playerId = Integer.parseInt(ctx.pathParam("playerId"));
+      respond(ctx, move(registry.get(MyDatabase.DEFAULT_GAME_ID), playerId, ctx.body()));
+    });
+    
+    // New game with the given id, or reset it if it exists.
+    // The optional size and winLength query parameters choose the board, e.g. 15 and 5.
+    app.get("/game/:gameId/newgame", ctx -> {
+      String gameId = ctx.pathParam("gameId");
+      if (!GameRegistry.isValidGameId(gameId)) {
+        ctx.status(400).result("This game id is invalid.");
+        return;
       }
-      if (matcher.find()) {
-        j = Integer.parseInt(matcher.group());
+      GameBoard gameBoard;
+      try {
+        int size = Integer.parseInt(ctx.queryParam("size", "3"));
+        int winLength = Integer.parseInt(ctx.queryParam("winLength", String.valueOf(size)));
+        gameBoard = new GameBoard(size, winLength);
+      } catch (IllegalArgumentException e) {
+        ctx.status(400).result("This board size is invalid.");
+        return;
       }
-      int playerId = Integer.parseInt(ctx.pathParam("playerId"));
+      respond(ctx, newGame(gameId, gameBoard)
+          .thenApply(snapshot -> new ByteArrayInputStream(snapshot.getBytes())));
+    });
+    
+    // Start the game with the given id.
+    app.post("/game/:gameId/startgame", ctx -> {
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        respond(ctx, startGame(room, ctx.body()));
+      }
+    });
+    
+    // Show current status of the game with the given id.
+    app.get("/game/:gameId/boardstatus", ctx -> {
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        sendBoardStatus(ctx, room);
+      }
+    });
+    
+    // Stream every version of the game with the given id.
+    app.sse("/game/:gameId/events", client -> {
+      streamBoard(client, registry.get(client.ctx.pathParam("gameId")));
+    });
+    
+    // Another player joins the game with the given id, or the computer with opponent=computer.
+    app.get("/game/:gameId/joingame", ctx -> {
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        respond(ctx, joinGame(room, COMPUTER.equals(ctx.queryParam("opponent"))));
+      }
+    });
+    
+    // Player asks to move in the game with the given id.
+    app.post("/game/:gameId/move/:playerId", ctx -> {
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        int playerId = Integer.parseInt(ctx.pathParam("playerId"));
+        respond(ctx, move(room, playerId, ctx.body()));
+      }
+    });
+
+    // The evaluation and principal variation of the game with the given id, for the player
+    // to move. The optional budgetMs query parameter shortens the search.
+    app.get("/game/:gameId/analysis", ctx -> {
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        analyze(ctx, room.getState());
+      }
+    });
+
+    // The stored moves of the game with the given id, which may lag the board by the
+    // flush interval of the writer. The journal cannot be queried.
+    app.get("/game/:gameId/history", ctx -> {
+      if (null == pool) {
+        ctx.status(501).result("The history is not kept by this storage.");
+        return;
+      }
+      GameRoom room = findRoom(ctx);
+      if (null != room) {
+        List<Move> moves = pool.read(c -> db.getMoves(c, room.getGameId()));
+        ctx.result(JsonEncoder.toJson(moves));
+      }
+    });
+    
+    // Statistics of the server.
+    app.get("/stats", ctx -> {
+      Map<String, Long> stats = new LinkedHashMap<>();
+      stats.put("games", (long) registry.size());
+      stats.put("subscribers", (long) subscriptions.size());
+      stats.put("mailboxDepth", (long) registry.getMailboxSize());
+      stats.put("outboundQueueDepth", subscriptions.getStats().getQueuedFrames());
+      stats.put("droppedFrames", subscriptions.getStats().getDroppedFrames());
+      stats.put("evictedSessions", subscriptions.getStats().getEvictedSessions());
+      stats.put("waitingPolls", (long) watchers.getPollCount());
+      stats.put("eventStreams", (long) watchers.getStreamCount());
+      stats.put("analyzedPositions", (long) analyzer.getTableSize());
+      stats.put("playouts", bot.getPlayouts());
+      stats.put("playoutsPerSecond", bot.getPlayoutsPerSecond());
+      if (null != pool) {
+        stats.put("storedMoves", pool.read(db::countMoves));
+      }
+      stats.put("writeQueueDepth", (long) writer.getQueueDepth());
+      stats.put("commits", writer.getCommitCount());
+      stats.put("snapshots", writer.getSnapshotCount());
+      stats.put("writeFailures", writer.getFailureCount());
+      stats.put("snapshotsPaused", writer.isSnapshotPaused() ? 1L : 0L);
+      if (null != pool) {
+        stats.put("checkpoints", pool.getCheckpointCount());
+      }
+      ctx.result(gson.toJson(stats));
+    });
+
+    // Attach each session to its game before UiWebSocket sees it.
+    app.wsBefore("/gameboard", subscriptions);
+    
+    // Web sockets - DO NOT DELETE or CHANGE
+    app.ws("/gameboard", new UiWebSocket());
+  }
+  
+  /**
+   * Find the game named by the gameId path parameter, answering 404 if it does not exist.
+   * @param ctx The context of the request
+   * @return The game, or null if the request has been answered
+   */
+  private static GameRoom findRoom(Context ctx) {
+    GameRoom room = registry.get(ctx.pathParam("gameId"));
+    if (null == room) {
+      ctx.status(404).result("This game does not exist.");
+    }
+    return room;
+  }
+  
+  /**
+   * Answer with the last version of a gameBoard, or with 304 if the client has it already.
+   * The JSON was encoded when the version was published, so this only copies bytes.
+   * With since=N the request waits until the gameBoard is newer than version N, and
+   * is answered with 304 if it is not within the poll timeout. The version of the answer
+   * is in the X-Board-Version header.
+   * @param ctx The context of the request
+   * @param room The game
+   */
+  private static void sendBoardStatus(Context ctx, GameRoom room) {
+    String since = ctx.queryParam("since");
+    if (null == since) {
+      BoardSnapshot snapshot = room.getSnapshot();
+      ctx.header("ETag", snapshot.getEtag());
+      ctx.header("X-Board-Version", String.valueOf(snapshot.getVersion()));
+      if (snapshot.matches(ctx.header("If-None-Match"))) {
+        ctx.status(304);
+      } else {
+        ctx.result(snapshot.getBytes());
+      }
+      return;
+    }
+    long version;
+    try {
+      version = Long.parseLong(since);
+    } catch (NumberFormatException e) {
+      ctx.status(400).result("This version is invalid.");
+      return;
+    }
+    respond(ctx, watchers.poll(room, version, POLL_TIMEOUT_MS).thenApply(snapshot -> {
+      ctx.header("ETag", snapshot.getEtag());
+      ctx.header("X-Board-Version", String.valueOf(snapshot.getVersion()));
+      if (snapshot.getVersion() <= version) {
+        ctx.status(304);
+        return "";
+      }
+      return new ByteArrayInputStream(snapshot.getBytes());
+    }));
+  }
+  
+  /**
+   * Stream every version of a gameBoard as a "board" event, whose id is the version.
+   * A client which reconnects with the Last-Event-ID it had does not get that version again.
+   * @param client The stream
+   * @param room The game, or null if it does not exist
+   */
+  private static void streamBoard(SseClient client, GameRoom room) {
+    if (null == room) {
+      client.sendEvent("error", "This game does not exist.");
+      client.ctx.req.getAsyncContext().complete();
+      return;
+    }
+    watchers.stream(room, client, client.ctx.header("Last-Event-ID"));
+  }
+  
+  /**
+   * Answer with the analysis of a version of a game. The version is immutable, so the search
+   * holds neither the game nor its workers.
+   * @param ctx The context of the request
+   * @param state The version
+   */
+  private static void analyze(Context ctx, GameState state) {
+    if (!GameAnalyzer.canAnalyze(state)) {
+      ctx.status(409).result("This game has not started.");
+      return;
+    }
+    long budget;
+    try {
+      budget = Long.parseLong(ctx.queryParam("budgetMs", String.valueOf(ANALYSIS_MS)));
+    } catch (NumberFormatException e) {
+      ctx.status(400).result("This budget is invalid.");
+      return;
+    }
+    budget = Math.max(0, Math.min(ANALYSIS_MS, budget));
+    respond(ctx, analyzer.analyze(state, budget).thenApply(gson::toJson));
+  }
+  
+  /**
+   * Answer a request once its result is ready, without holding a request thread until then.
+   * The response is written by a responder, so a slow client holds neither a game worker
+   * nor the writer, which complete most results.
+   * @param ctx The context of the request
+   * @param result The body, as a String or an InputStream
+   */
+  private static void respond(Context ctx, CompletableFuture<?> result) {
+    ctx.result(result.thenApplyAsync(body -> body, responders));
+  }
+  
+  /**
+   * Create a new game, or clear the game if it exists. A new game is rare, so the request
+   * waits until the new board has replaced the old game in the database, though the game
+   * does not.
+   * @param gameId The id of the game
+   * @param gameBoard The empty gameBoard of the new game
+   * @return The first version of the new game, once it is committed
+   */
+  private static CompletableFuture<BoardSnapshot> newGame(String gameId, GameBoard gameBoard) {
+    GameRoom room = registry.getOrCreate(gameId);
+    return room.submit(() -> {
+      room.setGameBoard(gameBoard);
+      room.setComputerOpponent(false);
+      BoardSnapshot snapshot = room.publish();
+      watchers.publish(gameId, snapshot);
+      writer.cleanGame(gameId);
+      writer.updateGameBoard(gameId, gameBoard);
+      System.out.println(snapshot.getJson());
+      return snapshot;
+    }).thenCompose(snapshot -> writer.flushAsync().thenApply(committed -> snapshot));
+  }
+  
+  /**
+   * Player 1 starts the game.
+   * @param room The game
+   * @param body The body of the request, which is in the form of "type=X"
+   * @return The result of the request
+   */
+  private static CompletableFuture<String> startGame(GameRoom room, String body) {
+    char type = (body.charAt(5));
+    return room.submit(() -> {
+      GameBoard gameBoard = room.getGameBoard();
+      gameBoard.init();
+      boolean started = gameBoard.startGame(type);
+      BoardSnapshot snapshot = room.publish();
+      watchers.publish(room.getGameId(), snapshot);
+      writer.updateGameBoard(room.getGameId(), gameBoard);
+      return started ? snapshot.getJson() : "This type is invalid.";
+    });
+  }
+  
+  /**
+   * Player 2 joins the game. The computer plays 3x3 with three in a row perfectly, and any
+   * other board by Monte Carlo tree search.
+   * @param room The game
+   * @param computer Whether the computer plays player 2
+   * @return The gameBoard in JSON after player 2 joins
+   */
+  private static CompletableFuture<String> joinGame(GameRoom room, boolean computer) {
+    return room.submit(() -> {
+      GameBoard gameBoard = room.getGameBoard();
+      gameBoard.joinGame();
+      room.setComputerOpponent(computer);
+      BoardSnapshot snapshot = room.publish();
+      writer.updateGameBoard(room.getGameId(), gameBoard);
+      // Queued by the command, so every session gets the boards in the order they changed.
+      sendGameBoardToAllPlayers(room.getGameId(), snapshot);
+      return snapshot.getJson();
+    });
+  }
+  
+  /**
+   * Player asks to move.
+   * @param room The game
+   * @param playerId The player who wants to move
+   * @param body The body of the request, which is in the form of "x=0&amp;y=0"
+   * @return The message of the move in JSON
+   */
+  private static CompletableFuture<String> move(GameRoom room, int playerId, String body) {
+    int[] cell = MoveRequest.parse(body);
+    return move(room, playerId, cell[0], cell[1]).thenApply(JsonEncoder::toJson);
+  }
+
+  /**
+   * Player asks to move.
+   * @param room The game
+   * @param playerId The player who wants to move
+   * @param i Which row
+   * @param j Which column
+   * @return The message of the move, once the game has made it
+   */
+  private static CompletableFuture<Message> move(GameRoom room, int playerId, int i, int j) {
+    return room.submit(() -> {
+      GameBoard gameBoard = room.getGameBoard();
       Player player = (1 == playerId) ? gameBoard.getPlayer1() : gameBoard.getPlayer2();
       Message message = gameBoard.move(i, j, playerId);
       if (100 == message.getCode()) {
-        lock.lock();
-        try {
-          db.addMove(conn, new Move(player, i, j));
-          db.updateGameBoard(conn, gameBoard);
-          //app.stop();
-          db.commit(conn);
-        } finally {
-          lock.unlock();
+        accept(room, new Move(player, i, j));
+        if (room.hasComputerOpponent() && 2 == gameBoard.getTurn()) {
+          answer(room);
         }
-        sendGameBoardToAllPlayers(gson.toJson(gameBoard));
       }
-      ctx.result(gson.toJson(message));
-      
+      return message;
     });
+  }
 
-    // Web sockets - DO NOT DELETE or CHANGE
-    app.ws("/gameboard", new UiWebSocket());
+  /**
+   * The computer answers the move which player 1 has just made, from the command of that
+   * move. On 3x3 the answer is a lookup in the table, so it is made in the same command.
+   * On any other board it is searched by the analysts, so the game takes other commands
+   * meanwhile, and it is made by a later command unless the game has changed since.
+   * If the search fails, the computer plays the first empty cell, so the game goes on.
+   * @param room The game
+   */
+  private static void answer(GameRoom room) {
+    GameBoard gameBoard = room.getGameBoard();
+    if (PerfectPlay.covers(gameBoard)) {
+      answer(room, PerfectPlay.bestMove(gameBoard));
+      return;
+    }
+    BoardSnapshot snapshot = room.getSnapshot();
+    GameState state = snapshot.getState();
+    if (!MonteCarloBot.canPlay(state)) {
+      return;
+    }
+    CompletableFuture<Integer> search;
+    try {
+      search = bot.bestMove(state);
+    } catch (RuntimeException e) {
+      search = CompletableFuture.failedFuture(e);
+    }
+    // A search which fails is logged, with its cause, and the computer takes the first
+    // empty cell instead, so the game never waits for a move which will not come.
+    search.exceptionally(e -> {
+      logger.error("The computer failed to choose a move in game {}; it takes the first "
+          + "empty cell.", room.getGameId(), e);
+      return firstEmptyCell(state);
+    }).thenAccept(cell -> room.submit(() -> {
+      if (snapshot.getVersion() == room.getSnapshot().getVersion()) {
+        answer(room, cell);
+      }
+      return null;
+    }));
   }
 
-  /** Send message to all players.
-   * @param gameBoardJson gameBoard JSON
-   * @throws IOException webSocket message send IO Exception
+  /**
+   * Find the first empty cell of a version of a game.
+   * @param state The version
+   * @return The cell, at (row * size + column), or -1 if the board is full
    */
-  private static void sendGameBoardToAllPlayers(final String gameBoardJson) {
-    Queue<Session> sessions = UiWebSocket.getSessions();
-    for (Session sessionPlayer : sessions) {
-      try {
-        sessionPlayer.getRemote().sendString(gameBoardJson);
-        System.out.println("1");
-      } catch (IOException e) {
-        // Add logger here
-        logger.error(e.getMessage());
-        e.printStackTrace();
+  private static int firstEmptyCell(GameState state) {
+    int size = state.getSize();
+    for (int cell = 0; cell < size * size; cell++) {
+      if (0 == state.getCell(cell / size, cell % size)) {
+        return cell;
       }
     }
+    return -1;
+  }
+
+  /**
+   * The computer moves as player 2.
+   * @param room The game
+   * @param cell The cell, at (row * size + column), or -1 if there is no move
+   */
+  private static void answer(GameRoom room, int cell) {
+    GameBoard gameBoard = room.getGameBoard();
+    int size = gameBoard.getSize();
+    if (cell >= 0 && 100 == gameBoard.move(cell / size, cell % size, 2).getCode()) {
+      accept(room, new Move(gameBoard.getPlayer2(), cell / size, cell % size));
+    }
+  }
+
+  /**
+   * Store and publish a move which the gameBoard has made.
+   * The move is acknowledged once it is queued; the writer commits it shortly after.
+   * @param room The game
+   * @param move The move
+   */
+  private static void accept(GameRoom room, Move move) {
+    writer.addMove(room.getGameId(), move);
+    writer.updateGameBoard(room.getGameId(), room.getGameBoard());
+    sendGameBoardToAllPlayers(room.getGameId(), room.publish(move));
+  }
+
+  /** Send message to all players and spectators of the game, and to its HTTP watchers.
+   * The board is only queued: a full board replaces the older ones which a session has
+   * not received, and a delta session gets only the move if one move made the version.
+   * @param gameId The game which has changed
+   * @param snapshot The new version of the gameBoard
+   */
+  private static void sendGameBoardToAllPlayers(final String gameId,
+      final BoardSnapshot snapshot) {
+    subscriptions.broadcast(gameId, snapshot);
+    watchers.publish(gameId, snapshot);
   }
 
+  /**
+   * Stop the server after every accepted change is committed.
+   */
   public static void stop() {
+    watchers.close();
     app.stop();
+    writer.close();
   }
   
 
+  public static GameSubscriptions getSubscriptions() {
+    return subscriptions;
+  }
+
   public static MyDatabase getDb() {
     return db;
   }
   
-  public static Connection getConnection() {
-    return conn;
+  /**
+   * The connections to the database, whose writer belongs to the write-behind writer.
+   * @return The pool, or null if the games are stored in the journal
+   */
+  public static ConnectionPool getPool() {
+    return pool;
   }
   
-  public static Lock getLock() {
-    return lock;
+  public static WriteBehindWriter getWriter() {
+    return writer;
   }
 }
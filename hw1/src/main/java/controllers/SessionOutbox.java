@@ -0,0 +1,308 @@
+package controllers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The frames which wait to be sent to one session. Frames are written one at a time
+ * without blocking the caller; the next one is written when the last one completes.
+ * The outbox holds a bounded number of frames, and a board replaces the unsent boards
+ * before it; a reply to the session's own command is never replaced. When the outbox is
+ * full its oldest frame which is not a reply is dropped. A session is closed, since it would
+ * only fall further behind, when its write has not completed for the grace period while
+ * frames keep arriving, when it stays over the limit for the grace period without catching
+ * up, or when only replies wait and one more would be dropped. A delta or binary session
+ * gets no move until it has had a full board, since it has nothing to apply the move to.
+ */
+public class SessionOutbox implements WriteCallback {
+
+  private static final Logger logger = LoggerFactory.getLogger(SessionOutbox.class);
+
+  private final Session session;
+
+  private final GameSubscriptions.Role role;
+
+  // How the session follows its game.
+  private final GameSubscriptions.Protocol protocol;
+
+  // The most frames which wait behind the one being written.
+  private final int limit;
+
+  private final long graceNanos;
+
+  private final OutboxStats stats;
+
+  // The frames which wait, oldest first, each a String, a byte[] or a Reply. Guarded by this.
+  private final Deque<Object> frames = new ArrayDeque<>();
+
+  // Whether a frame is being written, and since when.
+  private boolean writing;
+
+  private long writeStarted;
+
+  // Whether frames have been dropped since the outbox was last empty, and since when.
+  private boolean over;
+
+  private long overSince;
+
+  private boolean closed;
+
+  // Whether the session has had a full board, which the moves after it apply to.
+  private volatile boolean hasBoard;
+
+  /**
+   * The constructor.
+   * @param session The session
+   * @param role What the session does in its game
+   * @param protocol How the session follows its game
+   * @param limit The most frames which wait behind the one being written
+   * @param graceMs How long in milliseconds a write may take before the session is closed
+   * @param stats The counters shared by every outbox
+   */
+  public SessionOutbox(Session session, GameSubscriptions.Role role,
+      GameSubscriptions.Protocol protocol, int limit, long graceMs, OutboxStats stats) {
+    this.session = session;
+    this.role = role;
+    this.protocol = protocol;
+    this.limit = limit;
+    this.graceNanos = TimeUnit.MILLISECONDS.toNanos(graceMs);
+    this.stats = stats;
+  }
+
+  /**
+   * Queue a frame, and write it at once if nothing else is being written.
+   * @param frame The frame
+   * @param replaces Whether the frame makes the unsent boards useless, as a full board does
+   */
+  public void offer(String frame, boolean replaces) {
+    queue(frame, replaces);
+  }
+
+  /**
+   * Queue a binary frame, and write it at once if nothing else is being written.
+   * @param frame The frame
+   * @param replaces Whether the frame makes the unsent boards useless, as a full board does
+   */
+  public void offer(byte[] frame, boolean replaces) {
+    queue(frame, replaces);
+  }
+
+  /**
+   * Queue the answer to a command of the session, which no board replaces.
+   * @param frame The frame
+   */
+  public void reply(String frame) {
+    queue(new Reply(frame), false);
+  }
+
+  /**
+   * Queue the binary answer to a command of the session, which no board replaces.
+   * @param frame The frame
+   */
+  public void reply(byte[] frame) {
+    queue(new Reply(frame), false);
+  }
+
+  /**
+   * Queue a version of the board in the form which the session follows.
+   * A delta never replaces the frames before it, since the client applies them all.
+   * @param snapshot The version
+   */
+  public void offer(BoardSnapshot snapshot) {
+    switch (this.protocol) {
+      case BINARY:
+        if (null == snapshot.getBinaryMove()) {
+          offerFull(snapshot);
+        } else if (this.hasBoard) {
+          offer(snapshot.getBinaryMove(), false);
+        }
+        break;
+      case DELTA:
+        if (null == snapshot.getDelta()) {
+          offerFull(snapshot);
+        } else if (this.hasBoard) {
+          offer(snapshot.getDelta(), false);
+        }
+        break;
+      default:
+        offer(snapshot.getJson(), true);
+        break;
+    }
+  }
+
+  /**
+   * Queue the whole board in the form which the session follows, for a session which
+   * has missed a version.
+   * @param snapshot The version
+   */
+  public void offerFull(BoardSnapshot snapshot) {
+    this.hasBoard = true;
+    switch (this.protocol) {
+      case BINARY:
+        offer(snapshot.getBinaryBoard(), true);
+        break;
+      case DELTA:
+        offer(snapshot.getFullFrame(), true);
+        break;
+      default:
+        offer(snapshot.getJson(), true);
+        break;
+    }
+  }
+
+  private void queue(Object frame, boolean replaces) {
+    Object next = null;
+    boolean evict = false;
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      long now = System.nanoTime();
+      if (this.writing && now - this.writeStarted > this.graceNanos) {
+        evict = true;
+      } else {
+        if (replaces) {
+          discardBoards();
+        }
+        this.frames.addLast(frame);
+        this.stats.queued(1);
+        if (this.frames.size() > this.limit) {
+          if (!this.over) {
+            this.over = true;
+            this.overSince = now;
+          }
+          evict = now - this.overSince > this.graceNanos || !discardOldestBoard();
+        }
+        if (!evict && !this.writing) {
+          next = this.frames.pollFirst();
+          this.writing = true;
+          this.writeStarted = now;
+        }
+      }
+      if (evict) {
+        close();
+      }
+    }
+    if (evict) {
+      this.stats.evicted();
+      logger.warn("Closing a session which is too slow to receive its game.");
+      this.session.close(StatusCode.POLICY_VIOLATION, "Too slow to receive the game.");
+    } else if (null != next) {
+      write(next);
+    }
+  }
+
+  /**
+   * Discard the frames which wait, after the session has gone.
+   */
+  public synchronized void close() {
+    this.closed = true;
+    this.stats.queued(-this.frames.size());
+    this.frames.clear();
+  }
+
+  @Override
+  public void writeSuccess() {
+    Object next;
+    synchronized (this) {
+      this.stats.queued(-1);
+      next = this.frames.pollFirst();
+      if (null == next) {
+        // The session has caught up.
+        this.writing = false;
+        this.over = false;
+      } else {
+        this.writeStarted = System.nanoTime();
+      }
+    }
+    if (null != next) {
+      write(next);
+    }
+  }
+
+  @Override
+  public void writeFailed(Throwable x) {
+    synchronized (this) {
+      // A write which throws may also report its failure here, but is counted once.
+      if (this.writing) {
+        this.stats.queued(-1);
+        this.writing = false;
+      }
+      close();
+    }
+    logger.error(x.getMessage());
+  }
+
+  public Session getSession() {
+    return this.session;
+  }
+
+  public GameSubscriptions.Role getRole() {
+    return this.role;
+  }
+
+  public GameSubscriptions.Protocol getProtocol() {
+    return this.protocol;
+  }
+
+  public synchronized int getDepth() {
+    return this.frames.size() + (this.writing ? 1 : 0);
+  }
+
+  // Drop the oldest frame which waits and is not a reply, and answer whether there was one.
+  private boolean discardOldestBoard() {
+    for (Iterator<Object> it = this.frames.iterator(); it.hasNext(); ) {
+      if (!(it.next() instanceof Reply)) {
+        it.remove();
+        this.stats.queued(-1);
+        this.stats.dropped(1);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Drop the boards which wait, keeping the replies.
+  private void discardBoards() {
+    int count = 0;
+    for (Iterator<Object> it = this.frames.iterator(); it.hasNext(); ) {
+      if (!(it.next() instanceof Reply)) {
+        it.remove();
+        count++;
+      }
+    }
+    this.stats.queued(-count);
+    this.stats.dropped(count);
+  }
+
+  private void write(Object queued) {
+    Object frame = (queued instanceof Reply) ? ((Reply) queued).frame : queued;
+    try {
+      if (frame instanceof byte[]) {
+        this.session.getRemote().sendBytes(ByteBuffer.wrap((byte[]) frame), this);
+      } else {
+        this.session.getRemote().sendString((String) frame, this);
+      }
+    } catch (RuntimeException e) {
+      // The session closed under the write, which is reported like a failed write.
+      writeFailed(e);
+    }
+  }
+
+  // A frame which answers a command of the session.
+  private static final class Reply {
+    private final Object frame;
+
+    private Reply(Object frame) {
+      this.frame = frame;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package models;
+
+/**
+ * What a search found about a position: its value for the player whose turn it is, and the
+ * moves which both players are expected to make from it.
+ */
+public class Analysis {
+
+  private int turn;
+
+  // The value for the player to move: 0 is even, and beyond GameAnalyzer.WIN_BOUND is a win.
+  private int evaluation;
+
+  // The plies of the deepest search which was finished within the budget.
+  private int depth;
+
+  private long nodes;
+
+  // The expected moves, each as {row, column}, the best move of the player to move first.
+  private int[][] principalVariation;
+
+  /**
+   * The constructor.
+   * @param turn The player to move
+   * @param evaluation The value for the player to move
+   * @param depth The plies of the finished search
+   * @param nodes The positions visited by the search
+   * @param principalVariation The expected moves, each as {row, column}
+   */
+  public Analysis(int turn, int evaluation, int depth, long nodes, int[][] principalVariation) {
+    this.turn = turn;
+    this.evaluation = evaluation;
+    this.depth = depth;
+    this.nodes = nodes;
+    this.principalVariation = principalVariation;
+  }
+
+  public int getTurn() {
+    return this.turn;
+  }
+
+  public int getEvaluation() {
+    return this.evaluation;
+  }
+
+  public int getDepth() {
+    return this.depth;
+  }
+
+  public long getNodes() {
+    return this.nodes;
+  }
+
+  public int[][] getPrincipalVariation() {
+    return this.principalVariation;
+  }
+}
@@ -0,0 +1,582 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Search a position on a board of any size for its value and principal variation, by
+ * alpha-beta with iterative deepening on a fork/join pool. Near the root, once the first move
+ * of a position is searched, the other moves are searched in parallel against the best value
+ * found so far. Every search shares one table of values, keyed by a hash which is the same for
+ * the eight rotations and reflections of a position, so a position which has been searched
+ * deep enough, in any game and in any orientation, is not searched again.
+ * Boards larger than 4x4 only consider the empty cells next to a mark, and a position at the
+ * depth limit is valued by the lines which are still open to one mark.
+ */
+public final class GameAnalyzer {
+
+  // The value of a win for the player to move, less the plies until it is made.
+  public static final int WIN = 1000000;
+
+  // A value beyond this one is a forced win or loss, not an estimate.
+  public static final int WIN_BOUND = WIN - 2 * GameBoard.MAX_SIZE * GameBoard.MAX_SIZE;
+
+  // The plies from the root within which the moves after the first are searched in parallel.
+  private static final int SPLIT_PLIES = 3;
+
+  // The least depth below a position which is worth searching in parallel.
+  private static final int SPLIT_DEPTH = 3;
+
+  // The largest board on which every empty cell is a candidate move.
+  private static final int FULL_WIDTH_SIZE = 4;
+
+  private static final int X = 1;
+
+  private static final int O = 2;
+
+  // Whether a value in the table is exact, or only a lower or an upper bound.
+  private static final int EXACT = 0;
+
+  private static final int LOWER = 1;
+
+  private static final int UPPER = 2;
+
+  // The directions of a row, a column and the two diagonals.
+  private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+  // The key of each mark in each cell, at (cell * 2 + mark - 1), for a board of any size.
+  private static final long[] KEYS = new long[2 * GameBoard.MAX_SIZE * GameBoard.MAX_SIZE];
+
+  // The key of a position in which 'O' moves.
+  private static final long O_TO_MOVE;
+
+  static {
+    SplittableRandom random = new SplittableRandom(4156);
+    for (int k = 0; k < KEYS.length; k++) {
+      KEYS[k] = random.nextLong();
+    }
+    O_TO_MOVE = random.nextLong();
+  }
+
+  private final ForkJoinPool pool;
+
+  // The most positions which the table keeps; once it is full, new positions are not kept.
+  private final int capacity;
+
+  private final ConcurrentHashMap<Long, Entry> table = new ConcurrentHashMap<>();
+
+  // The eight symmetries of each size of board which has been searched, and their inverses.
+  private final ConcurrentHashMap<Integer, int[][]> symmetries = new ConcurrentHashMap<>();
+
+  /**
+   * The constructor.
+   * @param pool The threads which search
+   * @param capacity The most positions which the table keeps
+   */
+  public GameAnalyzer(ForkJoinPool pool, int capacity) {
+    this.pool = pool;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Whether a version of a game can be analyzed, which it can once player 1 has a mark.
+   * @param state The version
+   * @return true if the version has a board and a player 1
+   */
+  public static boolean canAnalyze(GameState state) {
+    return state.hasBoardState() && null != state.getPlayer1();
+  }
+
+  /**
+   * Search a version of a game, deeper and deeper until the budget is spent, the game is
+   * solved or the board is full. The answer is that of the deepest search which finished,
+   * and at least a search one ply deep finishes, whatever the budget.
+   * @param state The version, which canAnalyze accepts
+   * @param budgetMs The longest time in milliseconds which the search may take
+   * @return The analysis, once the search is done
+   */
+  public CompletableFuture<Analysis> analyze(GameState state, long budgetMs) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+    return CompletableFuture.supplyAsync(() -> new Search(state, deadline).run(), this.pool);
+  }
+
+  /**
+   * Count the positions in the table.
+   * @return The number of positions which have been kept
+   */
+  public int getTableSize() {
+    return this.table.size();
+  }
+
+  // Map each cell to its image under the eight symmetries, and back at (8 + symmetry).
+  private int[][] symmetries(int size) {
+    return this.symmetries.computeIfAbsent(size, n -> {
+      int[][] maps = new int[16][n * n];
+      for (int r = 0; r < n; r++) {
+        for (int c = 0; c < n; c++) {
+          int[] images = {r * n + c, c * n + (n - 1 - r), (n - 1 - r) * n + (n - 1 - c),
+              (n - 1 - c) * n + r, r * n + (n - 1 - c), (n - 1 - r) * n + c, c * n + r,
+              (n - 1 - c) * n + (n - 1 - r)};
+          for (int s = 0; s < 8; s++) {
+            maps[s][r * n + c] = images[s];
+            maps[8 + s][images[s]] = r * n + c;
+          }
+        }
+      }
+      return maps;
+    });
+  }
+
+  // A value in the table counts the plies to a win from its own position, not from the root.
+  private static int toTable(int value, int ply) {
+    return (value > WIN_BOUND) ? value + ply : (value < -WIN_BOUND) ? value - ply : value;
+  }
+
+  private static int fromTable(int value, int ply) {
+    return (value > WIN_BOUND) ? value - ply : (value < -WIN_BOUND) ? value + ply : value;
+  }
+
+  // What the table knows of a position, in the orientation whose hash is the least.
+  private static final class Entry {
+
+    private final int depth;
+
+    private final int value;
+
+    private final int bound;
+
+    private final int best;
+
+    private Entry(int depth, int value, int bound, int best) {
+      this.depth = depth;
+      this.value = value;
+      this.bound = bound;
+      this.best = best;
+    }
+  }
+
+  // The board being searched, which one thread plays moves on and takes them back.
+  private static final class Position {
+
+    private final int size;
+
+    private final int winLength;
+
+    private final byte[] cells;
+
+    // The hash of the position under each of the eight symmetries.
+    private final long[] hashes;
+
+    private int marks;
+
+    private int mover;
+
+    private Position(int size, int winLength, byte[] cells, long[] hashes, int marks, int mover) {
+      this.size = size;
+      this.winLength = winLength;
+      this.cells = cells;
+      this.hashes = hashes;
+      this.marks = marks;
+      this.mover = mover;
+    }
+
+    private Position copy() {
+      return new Position(this.size, this.winLength, this.cells.clone(), this.hashes.clone(),
+          this.marks, this.mover);
+    }
+
+    private void play(int cell, int[][] maps) {
+      this.cells[cell] = (byte) this.mover;
+      for (int s = 0; s < 8; s++) {
+        this.hashes[s] ^= KEYS[maps[s][cell] * 2 + this.mover - 1];
+      }
+      this.marks++;
+      this.mover = 3 - this.mover;
+    }
+
+    private void undo(int cell, int[][] maps) {
+      this.mover = 3 - this.mover;
+      this.marks--;
+      for (int s = 0; s < 8; s++) {
+        this.hashes[s] ^= KEYS[maps[s][cell] * 2 + this.mover - 1];
+      }
+      this.cells[cell] = 0;
+    }
+
+    private boolean isFull() {
+      return this.cells.length == this.marks;
+    }
+
+    // The symmetry under which the hash is the least, which is the same for every orientation.
+    private int symmetry() {
+      int least = 0;
+      for (int s = 1; s < 8; s++) {
+        if (this.hashes[s] < this.hashes[least]) {
+          least = s;
+        }
+      }
+      return least;
+    }
+
+    // Whether the mover makes winLength in a row by playing an empty cell.
+    private boolean wins(int cell) {
+      int i = cell / this.size;
+      int j = cell % this.size;
+      for (int[] direction : DIRECTIONS) {
+        int count = 1 + count(i, j, direction[0], direction[1])
+            + count(i, j, -direction[0], -direction[1]);
+        if (count >= this.winLength) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Count the marks of the mover from (i, j) towards (di, dj), not including (i, j).
+    private int count(int i, int j, int di, int dj) {
+      int count = 0;
+      int x = i + di;
+      int y = j + dj;
+      while (count < this.winLength - 1 && x >= 0 && x < this.size && y >= 0 && y < this.size
+          && this.mover == this.cells[x * this.size + y]) {
+        count++;
+        x += di;
+        y += dj;
+      }
+      return count;
+    }
+
+    // The candidate moves, the given one first if it is a candidate.
+    private int[] moves(int first) {
+      int n = this.size;
+      if (0 == this.marks && n > FULL_WIDTH_SIZE) {
+        return new int[] {(n / 2) * n + n / 2};
+      }
+      int[] moves = new int[this.cells.length - this.marks];
+      int count = 0;
+      for (int cell = 0; cell < this.cells.length; cell++) {
+        if (0 == this.cells[cell] && (n <= FULL_WIDTH_SIZE || isNearMark(cell))) {
+          moves[count++] = cell;
+        }
+      }
+      for (int k = 1; k < count; k++) {
+        if (first == moves[k]) {
+          moves[k] = moves[0];
+          moves[0] = first;
+        }
+      }
+      return (count == moves.length) ? moves : Arrays.copyOf(moves, count);
+    }
+
+    private boolean isNearMark(int cell) {
+      int i = cell / this.size;
+      int j = cell % this.size;
+      for (int x = Math.max(0, i - 1); x <= Math.min(this.size - 1, i + 1); x++) {
+        for (int y = Math.max(0, j - 1); y <= Math.min(this.size - 1, j + 1); y++) {
+          if (0 != this.cells[x * this.size + y]) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    // Value the position for the mover by the lines which only one mark has started,
+    // the more marks a line has the more it is worth. Only lines near the marks are visited.
+    private int evaluate() {
+      int n = this.size;
+      int w = this.winLength;
+      int top = n;
+      int left = n;
+      int bottom = -1;
+      int right = -1;
+      for (int cell = 0; cell < this.cells.length; cell++) {
+        if (0 != this.cells[cell]) {
+          top = Math.min(top, cell / n);
+          bottom = Math.max(bottom, cell / n);
+          left = Math.min(left, cell % n);
+          right = Math.max(right, cell % n);
+        }
+      }
+      long score = 0;
+      for (int[] direction : DIRECTIONS) {
+        for (int i = Math.max(0, top - w + 1); i <= bottom; i++) {
+          for (int j = Math.max(0, left - w + 1); j <= Math.min(n - 1, right + w - 1); j++) {
+            int endI = i + direction[0] * (w - 1);
+            int endJ = j + direction[1] * (w - 1);
+            if (endI >= n || endJ < 0 || endJ >= n) {
+              continue;
+            }
+            int mine = 0;
+            int theirs = 0;
+            for (int k = 0; k < w; k++) {
+              int mark = this.cells[(i + direction[0] * k) * n + j + direction[1] * k];
+              mine += (this.mover == mark) ? 1 : 0;
+              theirs += (0 != mark && this.mover != mark) ? 1 : 0;
+            }
+            if (0 == theirs && 0 != mine) {
+              score += 1L << Math.min(2 * mine, 30);
+            } else if (0 == mine && 0 != theirs) {
+              score -= 1L << Math.min(2 * theirs, 30);
+            }
+          }
+        }
+      }
+      return (int) Math.max(-WIN_BOUND + 1, Math.min(WIN_BOUND - 1, score));
+    }
+  }
+
+  // One search of one version of a game, deeper and deeper until the deadline.
+  private final class Search {
+
+    private final GameState state;
+
+    private final Position root;
+
+    private final int[][] maps;
+
+    // The key of the size and the win length, so that boards of different shapes do not meet.
+    private final long shape;
+
+    private final long deadline;
+
+    private final LongAdder nodes = new LongAdder();
+
+    // Whether the deadline applies, which it does once a search has finished.
+    private volatile boolean timed;
+
+    private volatile boolean stopped;
+
+    private Search(GameState state, long deadline) {
+      this.state = state;
+      this.deadline = deadline;
+      int n = state.getSize();
+      this.maps = symmetries(n);
+      this.shape = new SplittableRandom(((long) n << 32) | state.getWinLength()).nextLong();
+      char type = state.getPlayer1().getType();
+      char moverType = (1 == state.getTurn()) ? type : ('X' == type) ? 'O' : 'X';
+      byte[] cells = new byte[n * n];
+      long[] hashes = new long[8];
+      int marks = 0;
+      for (int cell = 0; cell < cells.length; cell++) {
+        char mark = state.getCell(cell / n, cell % n);
+        cells[cell] = (byte) (('X' == mark) ? X : ('O' == mark) ? O : 0);
+        if (0 != cells[cell]) {
+          marks++;
+          for (int s = 0; s < 8; s++) {
+            hashes[s] ^= KEYS[this.maps[s][cell] * 2 + cells[cell] - 1];
+          }
+        }
+      }
+      this.root = new Position(n, state.getWinLength(), cells, hashes, marks,
+          ('X' == moverType) ? X : O);
+    }
+
+    private Analysis run() {
+      int turn = this.state.getTurn();
+      if (0 != this.state.getWinner() || this.state.getIsDraw() || this.root.isFull()) {
+        int evaluation = (0 == this.state.getWinner()) ? 0
+            : (turn == this.state.getWinner()) ? WIN : -WIN;
+        return new Analysis(turn, evaluation, 0, 0, new int[0][]);
+      }
+      int value = 0;
+      int depth = 0;
+      int empty = this.root.cells.length - this.root.marks;
+      while (depth < empty) {
+        int next = search(this.root, depth + 1, -WIN - 1, WIN + 1, 0);
+        if (this.stopped) {
+          break;
+        }
+        value = next;
+        depth++;
+        this.timed = true;
+        if (Math.abs(value) > WIN_BOUND) {
+          break;
+        }
+      }
+      return new Analysis(turn, value, depth, this.nodes.sum(), principalVariation(depth));
+    }
+
+    private boolean isStopped() {
+      if (this.timed && !this.stopped && System.nanoTime() - this.deadline > 0) {
+        this.stopped = true;
+      }
+      return this.stopped;
+    }
+
+    private long key(Position position, int symmetry) {
+      return position.hashes[symmetry] ^ this.shape
+          ^ ((O == position.mover) ? O_TO_MOVE : 0);
+    }
+
+    // The value of a position for its mover, by negamax between alpha and beta.
+    private int search(Position position, int depth, int alpha, int beta, int ply) {
+      this.nodes.increment();
+      if (isStopped()) {
+        return 0;
+      }
+      int empty = position.cells.length - position.marks;
+      depth = Math.min(depth, empty);
+      int symmetry = position.symmetry();
+      long key = key(position, symmetry);
+      Entry entry = GameAnalyzer.this.table.get(key);
+      int hint = -1;
+      if (null != entry) {
+        hint = this.maps[8 + symmetry][entry.best];
+        int value = fromTable(entry.value, ply);
+        boolean enough = EXACT == entry.bound || (LOWER == entry.bound && value >= beta)
+            || (UPPER == entry.bound && value <= alpha);
+        if (entry.depth >= depth && enough) {
+          return value;
+        }
+      }
+      if (0 == depth) {
+        return position.evaluate();
+      }
+      int[] moves = position.moves(hint);
+      for (int cell : moves) {
+        if (position.wins(cell)) {
+          store(key, symmetry, empty, WIN - ply - 1, EXACT, cell, ply);
+          return WIN - ply - 1;
+        }
+      }
+      int best = Integer.MIN_VALUE;
+      int bestCell = moves[0];
+      int lowest = alpha;
+      if (ply < SPLIT_PLIES && depth >= SPLIT_DEPTH && moves.length > 1) {
+        best = child(position, moves[0], depth, alpha, beta, ply);
+        alpha = Math.max(alpha, best);
+        if (alpha < beta && !this.stopped) {
+          AtomicInteger bound = new AtomicInteger(alpha);
+          List<Sibling> siblings = new ArrayList<>(moves.length - 1);
+          for (int k = 1; k < moves.length; k++) {
+            siblings.add(new Sibling(position.copy(), moves[k], depth, beta, ply, bound));
+          }
+          ForkJoinTask.invokeAll(siblings);
+          for (Sibling sibling : siblings) {
+            if (sibling.searched && sibling.value > best) {
+              best = sibling.value;
+              bestCell = sibling.cell;
+            }
+          }
+        }
+      } else {
+        for (int cell : moves) {
+          int value = child(position, cell, depth, alpha, beta, ply);
+          if (this.stopped) {
+            return 0;
+          }
+          if (value > best) {
+            best = value;
+            bestCell = cell;
+          }
+          alpha = Math.max(alpha, value);
+          if (alpha >= beta) {
+            break;
+          }
+        }
+      }
+      if (this.stopped) {
+        return 0;
+      }
+      int bound = (best <= lowest) ? UPPER : (best >= beta) ? LOWER : EXACT;
+      store(key, symmetry, depth, best, bound, bestCell, ply);
+      return best;
+    }
+
+    // The value for the mover of a move which does not win.
+    private int child(Position position, int cell, int depth, int alpha, int beta, int ply) {
+      position.play(cell, this.maps);
+      int value = position.isFull() ? 0 : -search(position, depth - 1, -beta, -alpha, ply + 1);
+      position.undo(cell, this.maps);
+      return value;
+    }
+
+    // Keep a value unless the table is full, or it knows the position deeper already.
+    private void store(long key, int symmetry, int depth, int value, int bound, int cell,
+        int ply) {
+      ConcurrentHashMap<Long, Entry> table = GameAnalyzer.this.table;
+      if (table.size() >= GameAnalyzer.this.capacity && !table.containsKey(key)) {
+        return;
+      }
+      Entry entry = new Entry(depth, toTable(value, ply), bound, this.maps[symmetry][cell]);
+      table.merge(key, entry, (old, next) -> (next.depth >= old.depth) ? next : old);
+    }
+
+    // Follow the best moves in the table from the root, for at most the given plies.
+    private int[][] principalVariation(int plies) {
+      Position position = this.root.copy();
+      List<int[]> moves = new ArrayList<>();
+      while (moves.size() < plies && !position.isFull()) {
+        int symmetry = position.symmetry();
+        Entry entry = GameAnalyzer.this.table.get(key(position, symmetry));
+        if (null == entry) {
+          break;
+        }
+        int cell = this.maps[8 + symmetry][entry.best];
+        if (0 != position.cells[cell]) {
+          break;
+        }
+        moves.add(new int[] {cell / position.size, cell % position.size});
+        if (position.wins(cell)) {
+          break;
+        }
+        position.play(cell, this.maps);
+      }
+      return moves.toArray(new int[0][]);
+    }
+
+    // A move after the first of a position, searched against the best value of its siblings.
+    private final class Sibling extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Position position;
+
+      private final int cell;
+
+      private final int depth;
+
+      private final int beta;
+
+      private final int ply;
+
+      private final AtomicInteger bound;
+
+      private int value;
+
+      private boolean searched;
+
+      private Sibling(Position position, int cell, int depth, int beta, int ply,
+          AtomicInteger bound) {
+        this.position = position;
+        this.cell = cell;
+        this.depth = depth;
+        this.beta = beta;
+        this.ply = ply;
+        this.bound = bound;
+      }
+
+      @Override
+      protected void compute() {
+        int alpha = this.bound.get();
+        if (alpha >= this.beta) {
+          return;
+        }
+        this.value = child(this.position, this.cell, this.depth, alpha, this.beta, this.ply);
+        this.searched = !Search.this.stopped;
+        this.bound.accumulateAndGet(this.value, Math::max);
+      }
+    }
+  }
+}
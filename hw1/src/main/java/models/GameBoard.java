@@ -16,20 +16,69 @@ public class GameBoard {
 
   private boolean isDraw;
   
+  // The number of rows and columns of the board.
+  private int size = 3;
+  
+  // How many marks in a row win the game.
+  private int winLength = 3;
+  
+  // The cells taken by 'X' and by 'O', one bit per cell at (row * size + column).
+  // They mirror boardState and are not serialized. They are null until init or
+  // setBoardState, as in a gameBoard which Gson has read, and are then rebuilt from
+  // boardState before they are used.
+  private transient long[] bitsX;
+  
+  private transient long[] bitsO;
+  
+  // The number of cells taken, kept with the masks so a move need not count them.
+  private transient int used;
+  
+  // The largest board which can be created.
+  public static final int MAX_SIZE = 100;
+  
+  // The directions of a row, a column and the two diagonals.
+  private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+  
 
   public GameBoard() {
     
   }
   
+  /**
+   * Create a board of the given size.
+   * @param size The number of rows and columns
+   * @param winLength How many marks in a row win the game
+   */
+  public GameBoard(int size, int winLength) {
+    if (size < 1 || size > MAX_SIZE) {
+      throw new IllegalArgumentException("The size must be between 1 and " + MAX_SIZE + ".");
+    }
+    if (winLength < 1 || winLength > size) {
+      throw new IllegalArgumentException("The win length must be between 1 and the size.");
+    }
+    this.size = size;
+    this.winLength = winLength;
+    this.bitsX = new long[words(size)];
+    this.bitsO = new long[words(size)];
+  }
+  
+  // The number of longs which hold one bit per cell.
+  private static int words(int size) {
+    return (size * size + 63) >>> 6;
+  }
+  
   /**
    * Initialize the gameBoard.
    */
   public void init() {
     this.gameStarted = false;
     this.turn = 1;
-    this.boardState = new char[3][3];
+    this.boardState = new char[this.size][this.size];
     this.winner = 0;
     this.isDraw = false;
+    this.bitsX = new long[words(this.size)];
+    this.bitsO = new long[words(this.size)];
+    this.used = 0;
   }
   
   
@@ -51,9 +100,12 @@ public class GameBoard {
   
   /**
    * Return the current boardState.
-   * @return BoardState
+   * @return BoardState, or null before the gameBoard is initialized
    */
   public char[][] getBoardState() {
+    if (null == this.boardState) {
+      return null;
+    }
     int n = this.boardState.length;
     char[][] result = new char[n][n];
     for (int i = 0; i < n; i++) {
@@ -62,6 +114,24 @@ public class GameBoard {
     return result;
   }
   
+  /**
+   * Return one cell of the boardState, without copying the board.
+   * @param row Which row
+   * @param column Which column
+   * @return The mark in the cell, or 0 if it is empty
+   */
+  public char getCell(int row, int column) {
+    return this.boardState[row][column];
+  }
+  
+  /**
+   * Whether the boardState exists, which it does once the gameBoard is initialized.
+   * @return true if the gameBoard has a boardState
+   */
+  public boolean hasBoardState() {
+    return null != this.boardState;
+  }
+  
   public int  getWinner() {
     return this.winner;
   }
@@ -70,6 +140,14 @@ public class GameBoard {
     return this.isDraw;
   }
   
+  public int getSize() {
+    return this.size;
+  }
+  
+  public int getWinLength() {
+    return this.winLength;
+  }
+  
   public void setPlayer1(Player p1) {
     this.p1 = p1;
   }
@@ -91,10 +169,22 @@ public class GameBoard {
    * @param boardState the current state of the board.
    */
   public void setBoardState(char[][] boardState) {
-    this.boardState = new char[3][3];
-    int n = this.boardState.length;
-    for (int i = 0; i < n; i++) {
-      this.boardState[i] = boardState[i].clone();
+    int n = this.size;
+    this.boardState = new char[n][n];
+    this.bitsX = new long[words(n)];
+    this.bitsO = new long[words(n)];
+    this.used = 0;
+    for (int i = 0; i < n && i < boardState.length; i++) {
+      System.arraycopy(boardState[i], 0, this.boardState[i], 0, Math.min(n, boardState[i].length));
+      for (int j = 0; j < n; j++) {
+        if ('X' == this.boardState[i][j]) {
+          set(this.bitsX, i * n + j);
+          this.used++;
+        } else if ('O' == this.boardState[i][j]) {
+          set(this.bitsO, i * n + j);
+          this.used++;
+        }
+      }
     }
   }
   
@@ -148,6 +238,7 @@ public class GameBoard {
    * @return The code for message.
    */
   public int tryMove(Move move) {
+    ensureBits();
     if (null == this.getPlayer1() || null == this.getPlayer2()) {
       return 301;
     }
@@ -159,62 +250,100 @@ public class GameBoard {
     }
     int i = move.getMoveX();
     int j = move.getMoveY();
-    if (i >= 3 || i < 0 || j >= 3 || j < 0) {
+    if (i >= this.size || i < 0 || j >= this.size || j < 0) {
       return 201;
     }
-    if ('\u0000' != this.getBoardState()[i][j]) {
+    int cell = i * this.size + j;
+    if (isSet(this.bitsX, cell) || isSet(this.bitsO, cell)) {
       return 202;
     }
     if (move.getPlayer().getId() != this.getTurn()) {
       return 302;
     }
-    char[][] boardState = this.getBoardState();
-    boardState[i][j] = move.getPlayer().getType();
-    this.setBoardState(boardState);
+    char type = move.getPlayer().getType();
+    long[] bits = ('X' == type) ? this.bitsX : this.bitsO;
+    this.boardState[i][j] = type;
+    set(bits, cell);
+    this.used++;
     this.setTurn((this.getTurn() % 2) + 1);
-    updateState();
+    if (isWinningMove(bits, i, j)) {
+      this.setWinner(move.getPlayer().getId());
+    } else if (this.size * this.size == this.used) {
+      this.setIsDraw(true);
+    }
     return 100;
   }
   
   /**
    * Determined if one of the player has won this game.
+   * A 3x3 gameBoard is looked up in the table of every position instead of scanned.
    */
   public void updateState() {
     if (null == this.p1 || null == this.p2) {
       return;
     }
-    final char[][] boardState = this.getBoardState();
-    for (int i = 0; i < 3; i++) {
-      if (boardState[0][i] == boardState[1][i] && boardState[0][i] == boardState[2][i]) {
-        int playerId = (boardState[0][i] == this.getPlayer1().getType()) ? 1 : 2;
-        if ('\u0000' != boardState[0][i]) {
-          this.setWinner(playerId);
+    ensureBits();
+    int winnerX = ('X' == this.getPlayer1().getType()) ? 1 : 2;
+    if (PerfectPlay.covers(this)) {
+      int outcome = PerfectPlay.outcome(this);
+      if (0 == this.getWinner() && PerfectPlay.X_WINS == outcome) {
+        this.setWinner(winnerX);
+      } else if (0 == this.getWinner() && PerfectPlay.O_WINS == outcome) {
+        this.setWinner(3 - winnerX);
+      } else if (0 == this.getWinner() && PerfectPlay.DRAW == outcome) {
+        this.setIsDraw(true);
+      }
+      return;
+    }
+    for (int i = 0; i < this.size && 0 == this.getWinner(); i++) {
+      for (int j = 0; j < this.size; j++) {
+        int cell = i * this.size + j;
+        if (isSet(this.bitsX, cell) && isWinningMove(this.bitsX, i, j)) {
+          this.setWinner(winnerX);
           break;
         }
-      }
-      if (boardState[i][0] == boardState[i][1] && boardState[i][0] == boardState[i][2]) {
-        int playerId = (boardState[i][0] == this.getPlayer1().getType()) ? 1 : 2;
-        if ('\u0000' != boardState[i][0]) {
-          this.setWinner(playerId);
+        if (isSet(this.bitsO, cell) && isWinningMove(this.bitsO, i, j)) {
+          this.setWinner(3 - winnerX);
           break;
         }
       }
     }
-    if (boardState[0][0] == boardState[1][1] && boardState[0][0] == boardState[2][2]) {
-      int playerId = (boardState[0][0] == this.getPlayer1().getType()) ? 1 : 2;
-      if ('\u0000' != boardState[0][0]) {
-        this.setWinner(playerId);
-      }
+    if (this.size * this.size == this.used && 0 == this.getWinner()) {
+      this.setIsDraw(true);
     }
-    if (boardState[2][0] == boardState[1][1] && boardState[2][0] == boardState[0][2]) {
-      int playerId = (boardState[2][0] == this.getPlayer1().getType()) ? 1 : 2;
-      if ('\u0000' != boardState[2][0]) {
-        this.setWinner(playerId);
+  }
+  
+  /**
+   * Check the four lines through a cell for winLength marks in a row.
+   * Only the cells within winLength - 1 of the given cell are visited.
+   * @param bits The cells of the mark at (i, j)
+   * @param i which row
+   * @param j which column
+   * @return true if the cell is part of a winning line
+   */
+  private boolean isWinningMove(long[] bits, int i, int j) {
+    for (int[] direction : DIRECTIONS) {
+      int count = 1 + countInRow(bits, i, j, direction[0], direction[1])
+          + countInRow(bits, i, j, -direction[0], -direction[1]);
+      if (count >= this.winLength) {
+        return true;
       }
     }
-    if (9 == checkUsedPosition() && 0 == this.getWinner()) {
-      this.setIsDraw(true);
+    return false;
+  }
+  
+  // Count the consecutive marks from (i, j) towards (di, dj), not including (i, j).
+  private int countInRow(long[] bits, int i, int j, int di, int dj) {
+    int count = 0;
+    int x = i + di;
+    int y = j + dj;
+    while (count < this.winLength - 1 && x >= 0 && x < this.size && y >= 0 && y < this.size
+        && isSet(bits, x * this.size + y)) {
+      count++;
+      x += di;
+      y += dj;
     }
+    return count;
   }
 
   /**
@@ -222,15 +351,30 @@ public class GameBoard {
    * @return The counter of used position.
    */
   public int checkUsedPosition() {
-    int count = 0;
-    for (int i = 0; i < 3; i++) {
-      for (int j = 0; j < 3; j++) {
-        if (this.boardState[i][j] != '\u0000') {
-          count += 1;
-        }
-      }
+    ensureBits();
+    return this.used;
+  }
+  
+  // Rebuild the masks and the count from boardState, for a gameBoard which Gson has read.
+  private void ensureBits() {
+    if (null != this.bitsX) {
+      return;
     }
-    return count;
+    if (null == this.boardState) {
+      this.bitsX = new long[words(this.size)];
+      this.bitsO = new long[words(this.size)];
+      this.used = 0;
+    } else {
+      setBoardState(this.boardState);
+    }
+  }
+  
+  private static boolean isSet(long[] bits, int cell) {
+    return 0 != (bits[cell >>> 6] & (1L << cell));
+  }
+  
+  private static void set(long[] bits, int cell) {
+    bits[cell >>> 6] |= 1L << cell;
   }
   
 }
@@ -0,0 +1,132 @@
+package models;
+
+/**
+ * An immutable version of a gameBoard, which any thread may read without the lock of its
+ * game. A version made by one move shares every row but the moved one with the version
+ * before it, so a move copies one row and the array of rows instead of the whole board.
+ * The rows are never written after the version is built, and neither are the players.
+ */
+public final class GameState {
+
+  private final Player p1;
+
+  private final Player p2;
+
+  private final boolean gameStarted;
+
+  private final int turn;
+
+  // The rows of the board, or null before the gameBoard is initialized.
+  private final char[][] rows;
+
+  private final int winner;
+
+  private final boolean isDraw;
+
+  private final int size;
+
+  private final int winLength;
+
+  private GameState(GameBoard gameBoard, char[][] rows) {
+    this.p1 = gameBoard.getPlayer1();
+    this.p2 = gameBoard.getPlayer2();
+    this.gameStarted = gameBoard.getGamestarted();
+    this.turn = gameBoard.getTurn();
+    this.rows = rows;
+    this.winner = gameBoard.getWinner();
+    this.isDraw = gameBoard.getIsDraw();
+    this.size = gameBoard.getSize();
+    this.winLength = gameBoard.getWinLength();
+  }
+
+  /**
+   * Copy the whole of a gameBoard.
+   * @param gameBoard The gameBoard, which the caller keeps from changing while it is copied
+   * @return The version
+   */
+  public static GameState of(GameBoard gameBoard) {
+    return new GameState(gameBoard, gameBoard.getBoardState());
+  }
+
+  /**
+   * Build the version which one move made from this one, copying only the moved row.
+   * @param gameBoard The gameBoard after the move, which was this version before it
+   * @param move The move
+   * @return The version
+   */
+  public GameState next(GameBoard gameBoard, Move move) {
+    if (null == this.rows || this.size != gameBoard.getSize()) {
+      return of(gameBoard);
+    }
+    int x = move.getMoveX();
+    char[][] next = this.rows.clone();
+    next[x] = this.rows[x].clone();
+    next[x][move.getMoveY()] = move.getPlayer().getType();
+    return new GameState(gameBoard, next);
+  }
+
+  public Player getPlayer1() {
+    return this.p1;
+  }
+
+  public Player getPlayer2() {
+    return this.p2;
+  }
+
+  public boolean getGamestarted() {
+    return this.gameStarted;
+  }
+
+  public int getTurn() {
+    return this.turn;
+  }
+
+  /**
+   * Return one cell of the board.
+   * @param row Which row
+   * @param column Which column
+   * @return The mark in the cell, or 0 if it is empty
+   */
+  public char getCell(int row, int column) {
+    return this.rows[row][column];
+  }
+
+  /**
+   * Whether the board exists, which it does once the gameBoard is initialized.
+   * @return true if the version has a board
+   */
+  public boolean hasBoardState() {
+    return null != this.rows;
+  }
+
+  /**
+   * Copy the board.
+   * @return The boardState, or null before the gameBoard is initialized
+   */
+  public char[][] getBoardState() {
+    if (null == this.rows) {
+      return null;
+    }
+    char[][] result = new char[this.size][];
+    for (int i = 0; i < this.size; i++) {
+      result[i] = this.rows[i].clone();
+    }
+    return result;
+  }
+
+  public int getWinner() {
+    return this.winner;
+  }
+
+  public boolean getIsDraw() {
+    return this.isDraw;
+  }
+
+  public int getSize() {
+    return this.size;
+  }
+
+  public int getWinLength() {
+    return this.winLength;
+  }
+}
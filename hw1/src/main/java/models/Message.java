@@ -15,6 +15,7 @@ public class Message {
   public Message(int code) {
     //The code with 2 as prefix cover the exception for wrong position.
     //The code with 3 as prefix cover the exception for wrong order for player.
+    //The code with 5 as prefix cover a failure of the server.
     this.code = code;
     this.moveValidity = false;
     if (100 == code) {
@@ -28,10 +29,14 @@ public class Message {
       this.message = "Another player is absent.";
     } else if (302 == code) {
       this.message = "It is not your turn.";
+    } else if (303 == code) {
+      this.message = "A spectator cannot move.";
     } else if (401 == code) {
       this.message = "The game has been over.";
     } else if (402 == code) {
       this.message = "The game is draw.";
+    } else if (501 == code) {
+      this.message = "The server failed to make the move.";
     } else {
       this.message = "Unknown error.";
     }
@@ -0,0 +1,389 @@
+package models;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Choose a move on a board of any size by Monte Carlo tree search. Each of several threads
+ * grows a tree of its own from the position by UCT, and the trees vote with the visits of
+ * their first moves, so the threads share nothing while they search. A playout plays random
+ * moves, on a board which its thread allocated once, until a line is made or the board is
+ * full. The trees only consider the empty cells next to a mark. A move which wins at once is
+ * played, and a move with which the opponent would win is blocked, without a search.
+ */
+public final class MonteCarloBot {
+
+  // The weight of trying a move again against its rate of wins.
+  private static final double EXPLORATION = Math.sqrt(2);
+
+  // The directions of a row, a column and the two diagonals.
+  private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+  private final Executor threads;
+
+  private final int trees;
+
+  private final int playouts;
+
+  private final long budgetNanos;
+
+  private final SplittableRandom seeds = new SplittableRandom();
+
+  private final LongAdder playedOut = new LongAdder();
+
+  private final AtomicLong playoutsPerSecond = new AtomicLong();
+
+  /**
+   * The constructor.
+   * @param threads The threads on which the trees grow
+   * @param trees The number of trees, one per thread which should search
+   * @param playouts The playouts of a move, shared by the trees
+   * @param budgetMs The longest time in milliseconds which a move may take
+   */
+  public MonteCarloBot(Executor threads, int trees, int playouts, long budgetMs) {
+    this.threads = threads;
+    this.trees = Math.max(1, trees);
+    this.playouts = Math.max(this.trees, playouts);
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMs);
+  }
+
+  /**
+   * Whether there is a move to choose in a version of a game.
+   * @param state The version
+   * @return true if both players have joined and the game is not over
+   */
+  public static boolean canPlay(GameState state) {
+    return state.hasBoardState() && null != state.getPlayer1() && null != state.getPlayer2()
+        && 0 == state.getWinner() && !state.getIsDraw();
+  }
+
+  /**
+   * Choose the move of the player to move.
+   * @param state The version, which canPlay accepts
+   * @return The cell, at (row * size + column), once it is chosen
+   */
+  public CompletableFuture<Integer> bestMove(GameState state) {
+    Playout board = new Playout(state);
+    int cell = board.completes(board.mover);
+    if (cell < 0) {
+      cell = board.completes(3 - board.mover);
+    }
+    if (cell >= 0) {
+      return CompletableFuture.completedFuture(cell);
+    }
+    long start = System.nanoTime();
+    long deadline = start + this.budgetNanos;
+    // The votes are added up as the trees finish.
+    CompletableFuture<int[]> votes =
+        CompletableFuture.completedFuture(new int[board.cells.length + 1]);
+    for (int t = 0; t < this.trees; t++) {
+      int share = this.playouts / this.trees + ((t < this.playouts % this.trees) ? 1 : 0);
+      long seed = nextSeed();
+      CompletableFuture<int[]> tree = CompletableFuture.supplyAsync(
+          () -> grow(new Playout(state), share, deadline, new SplittableRandom(seed)),
+          this.threads);
+      votes = votes.thenCombine(tree, (visits, vote) -> {
+        for (int k = 0; k < visits.length; k++) {
+          visits[k] += vote[k];
+        }
+        return visits;
+      });
+    }
+    return votes.thenApply(visits -> {
+      long elapsed = Math.max(1, System.nanoTime() - start);
+      this.playoutsPerSecond.set(visits[visits.length - 1] * 1000000000L / elapsed);
+      int best = board.candidates()[0];
+      for (int k = 0; k < visits.length - 1; k++) {
+        if (visits[k] > visits[best]) {
+          best = k;
+        }
+      }
+      return best;
+    });
+  }
+
+  /**
+   * Count the playouts which every move so far has made.
+   * @return The number of playouts
+   */
+  public long getPlayouts() {
+    return this.playedOut.sum();
+  }
+
+  /**
+   * The speed of the last search, over all of its trees.
+   * @return The playouts per second of the last move which was searched
+   */
+  public long getPlayoutsPerSecond() {
+    return this.playoutsPerSecond.get();
+  }
+
+  private synchronized long nextSeed() {
+    return this.seeds.nextLong();
+  }
+
+  // Grow one tree, answering the visits of each first move and, last, the playouts made.
+  private int[] grow(Playout board, int share, long deadline, SplittableRandom random) {
+    Node root = new Node(null, -1, 3 - board.mover);
+    int played = 0;
+    while (played < share && (0 != (played & 15) || System.nanoTime() - deadline < 0)) {
+      board.reset();
+      Node node = root;
+      while (!node.terminal && null != node.untried && 0 == node.untriedCount
+          && 0 != node.childCount) {
+        node = node.select();
+        board.play(node.cell);
+      }
+      if (!node.terminal) {
+        if (null == node.untried) {
+          node.untried = board.candidates();
+          node.untriedCount = node.untried.length;
+          node.children = new Node[node.untriedCount];
+        }
+        int k = random.nextInt(node.untriedCount);
+        int cell = node.untried[k];
+        node.untried[k] = node.untried[--node.untriedCount];
+        int mark = board.mover;
+        boolean won = board.wins(cell);
+        board.play(cell);
+        node = node.add(cell, mark);
+        node.terminal = won || 0 == board.emptyCount;
+        node.result = won ? mark : 0;
+      }
+      int result = node.terminal ? node.result : board.playout(random);
+      for (; null != node; node = node.parent) {
+        node.visits++;
+        node.wins += (result == node.mark) ? 1 : (0 == result) ? 0.5 : 0;
+      }
+      played++;
+    }
+    this.playedOut.add(played);
+    int[] visits = new int[board.cells.length + 1];
+    for (int c = 0; c < root.childCount; c++) {
+      visits[root.children[c].cell] = root.children[c].visits;
+    }
+    visits[board.cells.length] = played;
+    return visits;
+  }
+
+  // A position in a tree, reached by the mark which played its cell.
+  private static final class Node {
+
+    private final Node parent;
+
+    private final int cell;
+
+    private final int mark;
+
+    private boolean terminal;
+
+    // The mark which has won a terminal position, or 0 if it is a draw.
+    private int result;
+
+    private int[] untried;
+
+    private int untriedCount;
+
+    private Node[] children;
+
+    private int childCount;
+
+    private int visits;
+
+    private double wins;
+
+    private Node(Node parent, int cell, int mark) {
+      this.parent = parent;
+      this.cell = cell;
+      this.mark = mark;
+    }
+
+    private Node add(int cell, int mark) {
+      Node child = new Node(this, cell, mark);
+      this.children[this.childCount++] = child;
+      return child;
+    }
+
+    // The child with the best upper confidence bound.
+    private Node select() {
+      double log = Math.log(this.visits);
+      Node best = this.children[0];
+      double bestBound = Double.NEGATIVE_INFINITY;
+      for (int c = 0; c < this.childCount; c++) {
+        Node child = this.children[c];
+        double bound = child.wins / child.visits
+            + EXPLORATION * Math.sqrt(log / child.visits);
+        if (bound > bestBound) {
+          bestBound = bound;
+          best = child;
+        }
+      }
+      return best;
+    }
+  }
+
+  // A board for playouts, which is set back to the position of the search without allocating.
+  private static final class Playout {
+
+    private final int size;
+
+    private final int winLength;
+
+    private final int firstMover;
+
+    private final byte[] firstCells;
+
+    private final int[] firstEmpties;
+
+    private final int[] firstSlots;
+
+    private final int firstEmptyCount;
+
+    private final byte[] cells;
+
+    // The empty cells, in no order, so a random one is found and taken at once.
+    private final int[] empties;
+
+    // Where each empty cell is in empties.
+    private final int[] slots;
+
+    private int emptyCount;
+
+    private int mover;
+
+    private Playout(GameState state) {
+      int n = state.getSize();
+      this.size = n;
+      this.winLength = state.getWinLength();
+      char type = state.getPlayer1().getType();
+      char moverType = (1 == state.getTurn()) ? type : ('X' == type) ? 'O' : 'X';
+      this.firstMover = ('X' == moverType) ? 1 : 2;
+      this.firstCells = new byte[n * n];
+      this.firstEmpties = new int[n * n];
+      this.firstSlots = new int[n * n];
+      int count = 0;
+      for (int cell = 0; cell < n * n; cell++) {
+        char mark = state.getCell(cell / n, cell % n);
+        this.firstCells[cell] = (byte) (('X' == mark) ? 1 : ('O' == mark) ? 2 : 0);
+        if (0 == this.firstCells[cell]) {
+          this.firstSlots[cell] = count;
+          this.firstEmpties[count++] = cell;
+        }
+      }
+      this.firstEmptyCount = count;
+      this.cells = new byte[n * n];
+      this.empties = new int[n * n];
+      this.slots = new int[n * n];
+      reset();
+    }
+
+    private void reset() {
+      System.arraycopy(this.firstCells, 0, this.cells, 0, this.cells.length);
+      System.arraycopy(this.firstEmpties, 0, this.empties, 0, this.firstEmptyCount);
+      System.arraycopy(this.firstSlots, 0, this.slots, 0, this.slots.length);
+      this.emptyCount = this.firstEmptyCount;
+      this.mover = this.firstMover;
+    }
+
+    private void play(int cell) {
+      this.cells[cell] = (byte) this.mover;
+      int slot = this.slots[cell];
+      int last = this.empties[--this.emptyCount];
+      this.empties[slot] = last;
+      this.slots[last] = slot;
+      this.mover = 3 - this.mover;
+    }
+
+    // Play random moves until one of them wins, answering its mark, or 0 for a draw.
+    private int playout(SplittableRandom random) {
+      while (0 != this.emptyCount) {
+        int cell = this.empties[random.nextInt(this.emptyCount)];
+        int mark = this.mover;
+        boolean won = wins(cell);
+        play(cell);
+        if (won) {
+          return mark;
+        }
+      }
+      return 0;
+    }
+
+    // Whether the mover makes winLength in a row by playing an empty cell.
+    private boolean wins(int cell) {
+      return makesLine(cell, this.mover);
+    }
+
+    // The empty cell with which a mark would win at once, or -1.
+    private int completes(int mark) {
+      for (int k = 0; k < this.emptyCount; k++) {
+        if (makesLine(this.empties[k], mark)) {
+          return this.empties[k];
+        }
+      }
+      return -1;
+    }
+
+    private boolean makesLine(int cell, int mark) {
+      int i = cell / this.size;
+      int j = cell % this.size;
+      for (int[] direction : DIRECTIONS) {
+        int count = 1 + count(i, j, direction[0], direction[1], mark)
+            + count(i, j, -direction[0], -direction[1], mark);
+        if (count >= this.winLength) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Count the marks from (i, j) towards (di, dj), not including (i, j).
+    private int count(int i, int j, int di, int dj, int mark) {
+      int count = 0;
+      int x = i + di;
+      int y = j + dj;
+      while (count < this.winLength - 1 && x >= 0 && x < this.size && y >= 0 && y < this.size
+          && mark == this.cells[x * this.size + y]) {
+        count++;
+        x += di;
+        y += dj;
+      }
+      return count;
+    }
+
+    // The empty cells next to a mark, or the center of an empty board.
+    private int[] candidates() {
+      int n = this.size;
+      if (this.emptyCount == this.cells.length) {
+        return new int[] {(n / 2) * n + n / 2};
+      }
+      int[] candidates = new int[this.emptyCount];
+      int count = 0;
+      for (int k = 0; k < this.emptyCount; k++) {
+        int cell = this.empties[k];
+        if (isNearMark(cell)) {
+          candidates[count++] = cell;
+        }
+      }
+      int[] result = new int[count];
+      System.arraycopy(candidates, 0, result, 0, count);
+      return result;
+    }
+
+    private boolean isNearMark(int cell) {
+      int i = cell / this.size;
+      int j = cell % this.size;
+      for (int x = Math.max(0, i - 1); x <= Math.min(this.size - 1, i + 1); x++) {
+        for (int y = Math.max(0, j - 1); y <= Math.min(this.size - 1, j + 1); y++) {
+          if (0 != this.cells[x * this.size + y]) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * The outcome and the best move of every 3x3 position, found once by an exhaustive
+ * minimax when the class is loaded, so that the computer opponent never searches.
+ * A position is the marks of its nine cells, read as a number in base 3, with 1 for 'X'
+ * and 2 for 'O'. The best move also depends on which mark moves, since either may start.
+ * Among moves which are equally good, the best one wins soonest or loses latest, and
+ * otherwise comes first in row-major order.
+ */
+public final class PerfectPlay {
+
+  public static final int NONE = 0;
+
+  public static final int X_WINS = 1;
+
+  public static final int O_WINS = 2;
+
+  public static final int DRAW = 3;
+
+  // The marks in a position, which also name the mark which moves.
+  private static final int X = 1;
+
+  private static final int O = 2;
+
+  private static final int CELLS = 9;
+
+  private static final int POSITIONS = 19683;
+
+  private static final int[][] LINES = {
+      {0, 1, 2}, {3, 4, 5}, {6, 7, 8}, {0, 3, 6}, {1, 4, 7}, {2, 5, 8}, {0, 4, 8}, {2, 4, 6}};
+
+  // The powers of 3, which weigh the cells of a position.
+  private static final int[] WEIGHTS = {1, 3, 9, 27, 81, 243, 729, 2187, 6561};
+
+  // The outcome of every position, reachable or not.
+  private static final byte[] OUTCOMES = new byte[POSITIONS];
+
+  // The best cell of every reachable position and mover, at (position * 2 + mover - 1),
+  // or -1 if the game is over.
+  private static final byte[] BEST = new byte[2 * POSITIONS];
+
+  // The value of the same positions for the mover: positive if it wins, the more the sooner.
+  private static final byte[] VALUES = new byte[2 * POSITIONS];
+
+  private static final byte UNSOLVED = -2;
+
+  private static int reachable;
+
+  static {
+    for (int position = 0; position < POSITIONS; position++) {
+      OUTCOMES[position] = (byte) classify(position);
+    }
+    Arrays.fill(BEST, UNSOLVED);
+    solve(0, X);
+    solve(0, O);
+  }
+
+  private PerfectPlay() {
+  }
+
+  /**
+   * Whether the table covers a gameBoard, which it does for 3x3 with three in a row.
+   * @param gameBoard The gameBoard
+   * @return true if the gameBoard can be looked up
+   */
+  public static boolean covers(GameBoard gameBoard) {
+    return 3 == gameBoard.getSize() && 3 == gameBoard.getWinLength()
+        && gameBoard.hasBoardState();
+  }
+
+  /**
+   * Look up the outcome of a gameBoard which the table covers. When both marks have a line,
+   * the one whose line holds the first cell in row-major order wins, as in updateState.
+   * @param gameBoard The gameBoard
+   * @return NONE, X_WINS, O_WINS or DRAW
+   */
+  public static int outcome(GameBoard gameBoard) {
+    return OUTCOMES[position(gameBoard)];
+  }
+
+  /**
+   * Look up the best move for the player whose turn it is.
+   * The answer is -1 if the game is over, if the table does not cover the gameBoard,
+   * or if no game can reach the position.
+   * @param gameBoard The gameBoard
+   * @return The cell, at (row * 3 + column), or -1
+   */
+  public static int bestMove(GameBoard gameBoard) {
+    if (!covers(gameBoard) || 0 != gameBoard.getWinner() || gameBoard.getIsDraw()) {
+      return -1;
+    }
+    Player mover = (1 == gameBoard.getTurn()) ? gameBoard.getPlayer1() : gameBoard.getPlayer2();
+    if (null == mover) {
+      return -1;
+    }
+    int best = BEST[index(position(gameBoard), ('X' == mover.getType()) ? X : O)];
+    return (UNSOLVED == best) ? -1 : best;
+  }
+
+  /**
+   * Count the positions, with the mark which moves, which a game can reach.
+   * @return The number of positions in the table of best moves
+   */
+  public static int getPositionCount() {
+    return reachable;
+  }
+
+  private static int position(GameBoard gameBoard) {
+    int position = 0;
+    for (int cell = 0; cell < CELLS; cell++) {
+      char mark = gameBoard.getCell(cell / 3, cell % 3);
+      position += WEIGHTS[cell] * (('X' == mark) ? X : ('O' == mark) ? O : 0);
+    }
+    return position;
+  }
+
+  private static int index(int position, int mover) {
+    return position * 2 + mover - 1;
+  }
+
+  private static int mark(int position, int cell) {
+    return position / WEIGHTS[cell] % 3;
+  }
+
+  // Find the winner by the first cell, in row-major order, which is part of a full line.
+  // X_WINS and O_WINS are the marks X and O.
+  private static int classify(int position) {
+    boolean full = true;
+    for (int cell = 0; cell < CELLS; cell++) {
+      int mark = mark(position, cell);
+      full &= 0 != mark;
+      for (int[] line : LINES) {
+        if (0 != mark && (line[0] == cell || line[1] == cell || line[2] == cell)
+            && mark == mark(position, line[0]) && mark == mark(position, line[1])
+            && mark == mark(position, line[2])) {
+          return mark;
+        }
+      }
+    }
+    return full ? DRAW : NONE;
+  }
+
+  // Minimax over the positions reachable from this one, remembering each of them.
+  private static int solve(int position, int mover) {
+    int index = index(position, mover);
+    if (UNSOLVED != BEST[index]) {
+      return VALUES[index];
+    }
+    reachable++;
+    int empty = 0;
+    for (int cell = 0; cell < CELLS; cell++) {
+      empty += (0 == mark(position, cell)) ? 1 : 0;
+    }
+    int outcome = OUTCOMES[position];
+    if (NONE != outcome) {
+      BEST[index] = -1;
+      // The mark which has just moved is the only one which can have won.
+      VALUES[index] = (byte) ((DRAW == outcome) ? 0 : -(1 + empty));
+      return VALUES[index];
+    }
+    int best = -1;
+    int value = Integer.MIN_VALUE;
+    for (int cell = 0; cell < CELLS; cell++) {
+      if (0 == mark(position, cell)) {
+        int child = -solve(position + mover * WEIGHTS[cell], 3 - mover);
+        if (child > value) {
+          value = child;
+          best = cell;
+        }
+      }
+    }
+    BEST[index] = (byte) best;
+    VALUES[index] = (byte) value;
+    return value;
+  }
+}
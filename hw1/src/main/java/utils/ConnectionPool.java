@@ -0,0 +1,126 @@
+package utils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The connections to a database in WAL mode: one writer and a few read-only connections.
+ * Recovery, history and stats queries use the readers, so they never wait for a commit.
+ * The WAL is checkpointed by the server when it grows past a threshold,
+ * instead of by whichever commit happens to cross SQLite's limit.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+  private final File walFile;
+
+  private final Connection writer;
+
+  private final BlockingQueue<Connection> readers;
+
+  // The size of the WAL in pages which triggers a checkpoint.
+  private final long checkpointPages;
+
+  private final long pageSize;
+
+  private final AtomicLong checkpointCount = new AtomicLong();
+
+  /**
+   * Open the connections.
+   * @param db The database
+   * @param path The path of the database file
+   * @param readerCount The number of read-only connections
+   * @param checkpointPages The size of the WAL in pages which triggers a checkpoint
+   */
+  public ConnectionPool(MyDatabase db, String path, int readerCount, long checkpointPages) {
+    this.walFile = new File(path + "-wal");
+    this.writer = db.createWalConnection(path, false);
+    this.readers = new ArrayBlockingQueue<>(readerCount);
+    for (int i = 0; i < readerCount; i++) {
+      this.readers.add(db.createWalConnection(path, true));
+    }
+    this.checkpointPages = checkpointPages;
+    this.pageSize = queryPageSize();
+  }
+
+  public Connection getWriter() {
+    return this.writer;
+  }
+
+  /**
+   * Run a query on a read-only connection, waiting for one to be free.
+   * @param query The query, which must close its statements
+   * @param <T> The type of the result
+   * @return The result of the query
+   */
+  public <T> T read(Function<Connection, T> query) {
+    Connection conn;
+    try {
+      conn = this.readers.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a reader.", e);
+    }
+    try {
+      return query.apply(conn);
+    } finally {
+      this.readers.add(conn);
+    }
+  }
+
+  /**
+   * Checkpoint the WAL into the database if it has grown past the threshold.
+   * It must be called by the thread which uses the writer, after a commit.
+   * @return true if a checkpoint was run
+   */
+  public boolean checkpointIfNeeded() {
+    if (this.walFile.length() < this.checkpointPages * this.pageSize) {
+      return false;
+    }
+    try (Statement stat = this.writer.createStatement();
+        ResultSet rs = stat.executeQuery("pragma wal_checkpoint(TRUNCATE);")) {
+      // The first column is 1 if a reader kept the WAL from being reset; it is retried later.
+      boolean done = rs.next() && 0 == rs.getInt(1);
+      if (done) {
+        this.checkpointCount.incrementAndGet();
+      }
+      return done;
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  public long getCheckpointCount() {
+    return this.checkpointCount.get();
+  }
+
+  private long queryPageSize() {
+    try (Statement stat = this.writer.createStatement();
+        ResultSet rs = stat.executeQuery("pragma page_size;")) {
+      rs.next();
+      return rs.getLong(1);
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return 4096;
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.writer.close();
+      for (Connection conn : this.readers) {
+        conn.close();
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+}
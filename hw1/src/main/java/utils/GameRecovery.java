@@ -0,0 +1,108 @@
+package utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import models.GameBoard;
+import models.Player;
+
+/**
+ * Rebuild the games from their stored gameBoards and moves, in the order they were stored.
+ * Every storage backend replays its records through this class, so they recover alike.
+ * The write-behind writer also keeps one up to date with every write, to take snapshots.
+ */
+public class GameRecovery {
+
+  private final Map<String, GameBoard> gameBoards = new LinkedHashMap<>();
+
+  private final Map<String, char[][]> boardStates = new HashMap<>();
+
+  // The first move of each game, which tells the players if the gameBoard does not.
+  private final Map<String, Player> firstMovers = new HashMap<>();
+
+  /**
+   * Replace the stored state of a gameBoard, keeping its moves.
+   * @param gameId the game which the gameBoard belongs to
+   * @param gameBoard the gameBoard without its boardState
+   */
+  public void gameBoard(String gameId, GameBoard gameBoard) {
+    this.gameBoards.put(gameId, gameBoard);
+  }
+
+  /**
+   * Start a game from its snapshot, which later gameBoards and moves are replayed onto.
+   * @param gameId the game which the snapshot belongs to
+   * @param gameBoard the gameBoard with its boardState
+   */
+  public void snapshot(String gameId, GameBoard gameBoard) {
+    this.gameBoards.put(gameId, gameBoard);
+    this.boardStates.put(gameId, gameBoard.getBoardState());
+    if (null == gameBoard.getPlayer1()) {
+      this.firstMovers.remove(gameId);
+    } else {
+      this.firstMovers.put(gameId, gameBoard.getPlayer1());
+    }
+  }
+
+  /**
+   * Replay a move.
+   * @param gameId the game which the move belongs to
+   * @param playerId who moved
+   * @param type the type of the player
+   * @param x which row
+   * @param y which column
+   */
+  public void move(String gameId, int playerId, char type, int x, int y) {
+    GameBoard gameBoard = this.gameBoards.computeIfAbsent(gameId, key -> new GameBoard());
+    char[][] boardState = this.boardStates.computeIfAbsent(gameId,
+        key -> new char[gameBoard.getSize()][gameBoard.getSize()]);
+    this.firstMovers.putIfAbsent(gameId, new Player(type, playerId));
+    boardState[x][y] = type;
+  }
+
+  /**
+   * Forget a game, as a new game does.
+   * @param gameId the game to forget
+   */
+  public void clean(String gameId) {
+    this.gameBoards.remove(gameId);
+    this.boardStates.remove(gameId);
+    this.firstMovers.remove(gameId);
+  }
+
+  /**
+   * Forget every game.
+   */
+  public void clear() {
+    this.gameBoards.clear();
+    this.boardStates.clear();
+    this.firstMovers.clear();
+  }
+
+  /**
+   * Build the gameBoards from what has been replayed. It may be called again after more
+   * is replayed, which updates the same gameBoards.
+   * @return the gameBoards keyed by game id
+   */
+  public Map<String, GameBoard> finish() {
+    for (Map.Entry<String, GameBoard> entry : this.gameBoards.entrySet()) {
+      GameBoard gameBoard = entry.getValue();
+      Player first = this.firstMovers.get(entry.getKey());
+      if (null == gameBoard.getPlayer1() && null != first) {
+        char other = ('X' == first.getType() ? 'O' : 'X');
+        if (1 == first.getId()) {
+          gameBoard.setPlayer1(first);
+          gameBoard.setPlayer2(new Player(other, 2));
+        } else {
+          gameBoard.setPlayer2(first);
+          gameBoard.setPlayer1(new Player(other, 1));
+        }
+      }
+      char[][] boardState = this.boardStates.get(entry.getKey());
+      gameBoard.setBoardState(
+          (null == boardState) ? new char[gameBoard.getSize()][gameBoard.getSize()] : boardState);
+      gameBoard.updateState();
+    }
+    return this.gameBoards;
+  }
+}
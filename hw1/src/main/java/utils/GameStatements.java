@@ -0,0 +1,184 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Map;
+import models.GameBoard;
+import models.Move;
+import models.Player;
+
+/**
+ * The statements which persist the games, prepared once for a connection.
+ * Writing a move only binds parameters, so no SQL is built or parsed per move.
+ */
+public class GameStatements implements AutoCloseable {
+
+  private final PreparedStatement insertMove;
+
+  private final PreparedStatement upsertGameBoard;
+
+  private final PreparedStatement deleteMoves;
+
+  private final PreparedStatement deleteGameBoard;
+
+  private final PreparedStatement deleteSnapshot;
+
+  private final PreparedStatement insertSnapshot;
+
+  private final PreparedStatement lastRowid;
+
+  // The sequence number of the snapshot. New moves are numbered after it,
+  // even when the moves with the highest rowids have been deleted.
+  private long snapshotSeq;
+
+  /**
+   * Prepare the statements.
+   * @param conn Connection
+   * @throws SQLException if a statement cannot be prepared
+   */
+  public GameStatements(Connection conn) throws SQLException {
+    this.insertMove = conn.prepareStatement(
+        "insert into move(rowid, gameId, playerId, playerType, x, y) "
+        + "values(max(ifnull((select max(rowid) from move), 0), ?) + 1, ?, ?, ?, ?, ?);");
+    this.upsertGameBoard = conn.prepareStatement(
+        "insert into gameBoard(gameId, gameStarted, turn, winner, isDraw, player1, player2, "
+        + "size, winLength) values(?, ?, ?, ?, ?, ?, ?, ?, ?) "
+        + "on conflict(gameId) do update set gameStarted = excluded.gameStarted, "
+        + "turn = excluded.turn, winner = excluded.winner, isDraw = excluded.isDraw, "
+        + "player1 = excluded.player1, player2 = excluded.player2, "
+        + "size = excluded.size, winLength = excluded.winLength;");
+    this.deleteMoves = conn.prepareStatement("delete from move where gameId = ?;");
+    this.deleteGameBoard = conn.prepareStatement("delete from gameBoard where gameId = ?;");
+    this.deleteSnapshot = conn.prepareStatement("delete from snapshot where gameId = ?;");
+    this.insertSnapshot = conn.prepareStatement(
+        "insert into snapshot(gameId, seq, gameStarted, turn, winner, isDraw, player1, player2, "
+        + "size, winLength, boardState) values(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
+    this.lastRowid = conn.prepareStatement("select ifnull(max(rowid), 0) from move;");
+    try (Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("select ifnull(max(seq), 0) from snapshot;")) {
+      rs.next();
+      this.snapshotSeq = rs.getLong(1);
+    }
+  }
+
+  /**
+   * insert a record.
+   * @param gameId the game which the move belongs to
+   * @param move move information
+   * @throws IllegalStateException if the move cannot be inserted
+   */
+  public void addMove(String gameId, Move move) {
+    try {
+      this.insertMove.setLong(1, this.snapshotSeq);
+      this.insertMove.setString(2, gameId);
+      this.insertMove.setInt(3, move.getPlayer().getId());
+      this.insertMove.setString(4, String.valueOf(move.getPlayer().getType()));
+      this.insertMove.setInt(5, move.getMoveX());
+      this.insertMove.setInt(6, move.getMoveY());
+      this.insertMove.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to insert the move.", e);
+    }
+  }
+
+  /**
+   * Insert or update the state of a gameBoard in one statement.
+   * @param gameId the game which the gameBoard belongs to
+   * @param gameBoard GameBoard
+   * @throws IllegalStateException if the gameBoard cannot be written
+   */
+  public void updateGameBoard(String gameId, GameBoard gameBoard) {
+    try {
+      this.upsertGameBoard.setString(1, gameId);
+      this.upsertGameBoard.setBoolean(2, gameBoard.getGamestarted());
+      this.upsertGameBoard.setInt(3, gameBoard.getTurn());
+      this.upsertGameBoard.setInt(4, gameBoard.getWinner());
+      this.upsertGameBoard.setBoolean(5, gameBoard.getIsDraw());
+      setType(this.upsertGameBoard, 6, gameBoard.getPlayer1());
+      setType(this.upsertGameBoard, 7, gameBoard.getPlayer2());
+      this.upsertGameBoard.setInt(8, gameBoard.getSize());
+      this.upsertGameBoard.setInt(9, gameBoard.getWinLength());
+      this.upsertGameBoard.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to update the gameBoard.", e);
+    }
+  }
+
+  /**
+   * Clear the records of one game, including its snapshot.
+   * @param gameId the game to clear
+   * @throws IllegalStateException if the records cannot be deleted
+   */
+  public void cleanGame(String gameId) {
+    try {
+      this.deleteGameBoard.setString(1, gameId);
+      this.deleteGameBoard.executeUpdate();
+      this.deleteMoves.setString(1, gameId);
+      this.deleteMoves.executeUpdate();
+      this.deleteSnapshot.setString(1, gameId);
+      this.deleteSnapshot.executeUpdate();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to clean the game.", e);
+    }
+  }
+
+  /**
+   * Replace the snapshot with the given games, numbered after the last stored move.
+   * @param gameBoards every game, keyed by game id
+   * @throws IllegalStateException if the snapshot cannot be written
+   */
+  public void snapshot(Map<String, GameBoard> gameBoards) {
+    try (ResultSet rs = this.lastRowid.executeQuery();
+        Statement stat = this.insertSnapshot.getConnection().createStatement()) {
+      rs.next();
+      long seq = Math.max(rs.getLong(1), this.snapshotSeq);
+      stat.executeUpdate("delete from snapshot;");
+      for (Map.Entry<String, GameBoard> entry : gameBoards.entrySet()) {
+        GameBoard gameBoard = entry.getValue();
+        this.insertSnapshot.setString(1, entry.getKey());
+        this.insertSnapshot.setLong(2, seq);
+        this.insertSnapshot.setBoolean(3, gameBoard.getGamestarted());
+        this.insertSnapshot.setInt(4, gameBoard.getTurn());
+        this.insertSnapshot.setInt(5, gameBoard.getWinner());
+        this.insertSnapshot.setBoolean(6, gameBoard.getIsDraw());
+        setType(this.insertSnapshot, 7, gameBoard.getPlayer1());
+        setType(this.insertSnapshot, 8, gameBoard.getPlayer2());
+        this.insertSnapshot.setInt(9, gameBoard.getSize());
+        this.insertSnapshot.setInt(10, gameBoard.getWinLength());
+        this.insertSnapshot.setString(11, MyDatabase.encodeBoardState(gameBoard.getBoardState()));
+        this.insertSnapshot.addBatch();
+      }
+      this.insertSnapshot.executeBatch();
+      this.snapshotSeq = seq;
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to write the snapshot.", e);
+    }
+  }
+
+  private static void setType(PreparedStatement stat, int index, Player player)
+      throws SQLException {
+    if (null == player) {
+      stat.setNull(index, Types.CHAR);
+    } else {
+      stat.setString(index, String.valueOf(player.getType()));
+    }
+  }
+
+  @Override
+  public void close() {
+    PreparedStatement[] statements = {
+        this.insertMove, this.upsertGameBoard, this.deleteMoves, this.deleteGameBoard,
+        this.deleteSnapshot, this.insertSnapshot, this.lastRowid};
+    for (PreparedStatement stat : statements) {
+      try {
+        stat.close();
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
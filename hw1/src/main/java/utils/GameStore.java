@@ -0,0 +1,63 @@
+package utils;
+
+import java.util.Map;
+import models.GameBoard;
+import models.Move;
+
+/**
+ * Where the games are persisted. The write-behind writer is the only thread which writes,
+ * and nothing written is durable until commit returns.
+ */
+public interface GameStore extends AutoCloseable {
+
+  /**
+   * Get ready to write, once recovery is done. A closed store can be opened again.
+   */
+  void open();
+
+  /**
+   * Store a move.
+   * @param gameId the game which the move belongs to
+   * @param move move information
+   */
+  void addMove(String gameId, Move move);
+
+  /**
+   * Store the state of a gameBoard, replacing the previous one.
+   * @param gameId the game which the gameBoard belongs to
+   * @param gameBoard GameBoard
+   */
+  void updateGameBoard(String gameId, GameBoard gameBoard);
+
+  /**
+   * Clear the records of one game.
+   * @param gameId the game to clear
+   */
+  void cleanGame(String gameId);
+
+  /**
+   * Replace the snapshot with the given games, which reflect every write so far,
+   * so recovery only replays what is written after it.
+   * @param gameBoards every game, keyed by game id
+   */
+  void snapshot(Map<String, GameBoard> gameBoards);
+
+  /**
+   * Make everything written so far durable.
+   */
+  void commit();
+
+  /**
+   * Discard everything written since the last commit, after a write has failed.
+   */
+  void rollback();
+
+  /**
+   * Rebuild every stored game from the snapshot and what was written after it.
+   * @return the gameBoards keyed by game id
+   */
+  Map<String, GameBoard> recoverAllGames();
+
+  @Override
+  void close();
+}
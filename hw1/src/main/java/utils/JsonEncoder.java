@@ -0,0 +1,376 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import models.GameBoard;
+import models.GameState;
+import models.Message;
+import models.Move;
+import models.Player;
+
+/**
+ * Encode the models in JSON straight into a reusable buffer, without reflection and without
+ * copying the board. The output is byte for byte what new Gson().toJson gives: the fields in
+ * the order they are declared, no null fields, a char as a string, and the same escapes,
+ * including Gson's HTML-safe ones. Each thread has an encoder of its own, from local().
+ */
+public final class JsonEncoder {
+
+  private static final ThreadLocal<JsonEncoder> LOCAL = ThreadLocal.withInitial(JsonEncoder::new);
+
+  // The escape of each ASCII character, or null if it is written as it is.
+  private static final byte[][] ESCAPES = new byte[128][];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      ESCAPES[c] = ascii(String.format("\\u%04x", c));
+    }
+    ESCAPES['"'] = ascii("\\\"");
+    ESCAPES['\\'] = ascii("\\\\");
+    ESCAPES['\t'] = ascii("\\t");
+    ESCAPES['\b'] = ascii("\\b");
+    ESCAPES['\n'] = ascii("\\n");
+    ESCAPES['\r'] = ascii("\\r");
+    ESCAPES['\f'] = ascii("\\f");
+    for (char c : new char[] {'<', '>', '&', '=', '\''}) {
+      ESCAPES[c] = ascii(String.format("\\u%04x", (int) c));
+    }
+  }
+
+  // Gson also escapes the two characters which end a line in JavaScript.
+  private static final byte[] LINE_SEPARATOR = ascii("\\u2028");
+
+  private static final byte[] PARAGRAPH_SEPARATOR = ascii("\\u2029");
+
+  private static final byte[] P1 = ascii("\"p1\":");
+
+  private static final byte[] P2 = ascii("\"p2\":");
+
+  private static final byte[] GAME_STARTED = ascii("\"gameStarted\":");
+
+  private static final byte[] TURN = ascii("\"turn\":");
+
+  private static final byte[] BOARD_STATE = ascii("\"boardState\":");
+
+  private static final byte[] WINNER = ascii("\"winner\":");
+
+  private static final byte[] IS_DRAW = ascii("\"isDraw\":");
+
+  private static final byte[] SIZE = ascii("\"size\":");
+
+  private static final byte[] WIN_LENGTH = ascii("\"winLength\":");
+
+  private static final byte[] TYPE = ascii("\"type\":");
+
+  private static final byte[] ID = ascii("\"id\":");
+
+  private static final byte[] PLAYER = ascii("\"player\":");
+
+  private static final byte[] MOVE_X = ascii("\"moveX\":");
+
+  private static final byte[] MOVE_Y = ascii("\"moveY\":");
+
+  private static final byte[] MOVE_VALIDITY = ascii("\"moveValidity\":");
+
+  private static final byte[] CODE = ascii("\"code\":");
+
+  private static final byte[] MESSAGE = ascii("\"message\":");
+
+  private static final byte[] TRUE = ascii("true");
+
+  private static final byte[] FALSE = ascii("false");
+
+  private byte[] buffer = new byte[256];
+
+  private int length;
+
+  /**
+   * Find the encoder of this thread, emptied.
+   * @return The encoder
+   */
+  public static JsonEncoder local() {
+    JsonEncoder encoder = LOCAL.get();
+    encoder.length = 0;
+    return encoder;
+  }
+
+  /**
+   * Encode a gameBoard.
+   * @param gameBoard The gameBoard
+   * @return The JSON
+   */
+  public static String toJson(GameBoard gameBoard) {
+    return local().writeGameBoard(gameBoard).toString();
+  }
+
+  /**
+   * Encode the message of a move.
+   * @param message The message
+   * @return The JSON
+   */
+  public static String toJson(Message message) {
+    return local().writeMessage(message).toString();
+  }
+
+  /**
+   * Encode a list of moves.
+   * @param moves The moves
+   * @return The JSON
+   */
+  public static String toJson(List<Move> moves) {
+    return local().writeMoves(moves).toString();
+  }
+
+  /**
+   * Append a gameBoard.
+   * @param gameBoard The gameBoard
+   * @return This encoder
+   */
+  public JsonEncoder writeGameBoard(GameBoard gameBoard) {
+    return writeGameState(GameState.of(gameBoard));
+  }
+
+  /**
+   * Append a version of a gameBoard, which is encoded as the gameBoard itself.
+   * @param gameBoard The version
+   * @return This encoder
+   */
+  public JsonEncoder writeGameState(GameState gameBoard) {
+    append('{');
+    boolean first = true;
+    if (null != gameBoard.getPlayer1()) {
+      first = name(first, P1);
+      writePlayer(gameBoard.getPlayer1());
+    }
+    if (null != gameBoard.getPlayer2()) {
+      first = name(first, P2);
+      writePlayer(gameBoard.getPlayer2());
+    }
+    name(first, GAME_STARTED);
+    writeBoolean(gameBoard.getGamestarted());
+    name(false, TURN);
+    writeInt(gameBoard.getTurn());
+    int size = gameBoard.getSize();
+    if (gameBoard.hasBoardState()) {
+      name(false, BOARD_STATE);
+      append('[');
+      for (int i = 0; i < size; i++) {
+        if (0 != i) {
+          append(',');
+        }
+        append('[');
+        for (int j = 0; j < size; j++) {
+          if (0 != j) {
+            append(',');
+          }
+          writeChar(gameBoard.getCell(i, j));
+        }
+        append(']');
+      }
+      append(']');
+    }
+    name(false, WINNER);
+    writeInt(gameBoard.getWinner());
+    name(false, IS_DRAW);
+    writeBoolean(gameBoard.getIsDraw());
+    name(false, SIZE);
+    writeInt(size);
+    name(false, WIN_LENGTH);
+    writeInt(gameBoard.getWinLength());
+    append('}');
+    return this;
+  }
+
+  /**
+   * Append a player.
+   * @param player The player
+   * @return This encoder
+   */
+  public JsonEncoder writePlayer(Player player) {
+    append('{');
+    name(true, TYPE);
+    writeChar(player.getType());
+    name(false, ID);
+    writeInt(player.getId());
+    append('}');
+    return this;
+  }
+
+  /**
+   * Append a move.
+   * @param move The move
+   * @return This encoder
+   */
+  public JsonEncoder writeMove(Move move) {
+    append('{');
+    boolean first = true;
+    if (null != move.getPlayer()) {
+      first = name(first, PLAYER);
+      writePlayer(move.getPlayer());
+    }
+    name(first, MOVE_X);
+    writeInt(move.getMoveX());
+    name(false, MOVE_Y);
+    writeInt(move.getMoveY());
+    append('}');
+    return this;
+  }
+
+  /**
+   * Append a list of moves.
+   * @param moves The moves
+   * @return This encoder
+   */
+  public JsonEncoder writeMoves(List<Move> moves) {
+    append('[');
+    for (int i = 0; i < moves.size(); i++) {
+      if (0 != i) {
+        append(',');
+      }
+      writeMove(moves.get(i));
+    }
+    append(']');
+    return this;
+  }
+
+  /**
+   * Append the message of a move.
+   * @param message The message
+   * @return This encoder
+   */
+  public JsonEncoder writeMessage(Message message) {
+    append('{');
+    name(true, MOVE_VALIDITY);
+    writeBoolean(message.getMoveValidity());
+    name(false, CODE);
+    writeInt(message.getCode());
+    if (null != message.getMessage()) {
+      name(false, MESSAGE);
+      writeString(message.getMessage());
+    }
+    append('}');
+    return this;
+  }
+
+  /**
+   * Copy what has been encoded.
+   * @return The UTF-8 bytes
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(this.buffer, this.length);
+  }
+
+  public int length() {
+    return this.length;
+  }
+
+  @Override
+  public String toString() {
+    return new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+  }
+
+  // Write the name of a field, after a comma unless it is the first one.
+  private boolean name(boolean first, byte[] name) {
+    if (!first) {
+      append(',');
+    }
+    append(name);
+    return false;
+  }
+
+  private void writeBoolean(boolean value) {
+    append(value ? TRUE : FALSE);
+  }
+
+  private void writeInt(int value) {
+    if (value >= 0 && value < 10) {
+      append((char) ('0' + value));
+      return;
+    }
+    String digits = Integer.toString(value);
+    ensure(digits.length());
+    for (int i = 0; i < digits.length(); i++) {
+      this.buffer[this.length++] = (byte) digits.charAt(i);
+    }
+  }
+
+  private void writeChar(char c) {
+    append('"');
+    appendEscaped(c);
+    append('"');
+  }
+
+  private void writeString(String value) {
+    append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < value.length()
+          && Character.isLowSurrogate(value.charAt(i + 1))) {
+        appendCodePoint(Character.toCodePoint(c, value.charAt(++i)));
+      } else {
+        appendEscaped(c);
+      }
+    }
+    append('"');
+  }
+
+  private void appendEscaped(char c) {
+    if (c < 128) {
+      byte[] escape = ESCAPES[c];
+      if (null == escape) {
+        append(c);
+      } else {
+        append(escape);
+      }
+    } else if ('\u2028' == c) {
+      append(LINE_SEPARATOR);
+    } else if ('\u2029' == c) {
+      append(PARAGRAPH_SEPARATOR);
+    } else {
+      appendCodePoint(c);
+    }
+  }
+
+  // Write a character which is not ASCII in UTF-8; a lone surrogate becomes '?', as in String.
+  private void appendCodePoint(int codePoint) {
+    ensure(4);
+    if (codePoint < 0x800) {
+      this.buffer[this.length++] = (byte) (0xc0 | codePoint >> 6);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint & 0x3f);
+    } else if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000) {
+      this.buffer[this.length++] = '?';
+    } else if (codePoint < 0x10000) {
+      this.buffer[this.length++] = (byte) (0xe0 | codePoint >> 12);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint & 0x3f);
+    } else {
+      this.buffer[this.length++] = (byte) (0xf0 | codePoint >> 18);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+      this.buffer[this.length++] = (byte) (0x80 | codePoint & 0x3f);
+    }
+  }
+
+  private void append(char c) {
+    ensure(1);
+    this.buffer[this.length++] = (byte) c;
+  }
+
+  private void append(byte[] bytes) {
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+    this.length += bytes.length;
+  }
+
+  private void ensure(int more) {
+    if (this.length + more > this.buffer.length) {
+      int capacity = Math.max(this.buffer.length * 2, this.length + more);
+      this.buffer = Arrays.copyOf(this.buffer, capacity);
+    }
+  }
+
+  private static byte[] ascii(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,569 @@
+package utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import models.GameBoard;
+import models.Move;
+import models.Player;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store the games in an append-only journal of fixed-size binary records,
+ * written to memory-mapped segment files in a directory.
+ * Every record carries a CRC and a sequence number, so recovery scans the segments in order
+ * and stops at the first record which was not completely written.
+ * A crash of the process loses nothing which was appended, since the pages belong to the OS;
+ * the fsync interval bounds what a power failure can lose. A commit forces the records once
+ * the interval has passed since the last fsync, and a timer forces a commit which no later
+ * commit has, so a committed record reaches the disk within about one interval either way.
+ * The writer and the timer share the journal, so its methods are synchronized.
+ * A snapshot of every game is written to its own file, and recovery loads it and replays
+ * only the records after it; the segments before the current one are then deleted.
+ */
+public class MoveJournal implements GameStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(MoveJournal.class);
+
+  // The size of every record in bytes.
+  public static final int RECORD_BYTES = 88;
+
+  // The longest game id which fits in a record.
+  public static final int MAX_GAME_ID_LENGTH = 64;
+
+  private static final byte MOVE = 1;
+
+  private static final byte BOARD = 2;
+
+  private static final byte CLEAN = 3;
+
+  private static final int CRC_OFFSET = 0;
+
+  private static final int KIND_OFFSET = 4;
+
+  private static final int ID_LENGTH_OFFSET = 5;
+
+  private static final int SEQ_OFFSET = 16;
+
+  private static final int ID_OFFSET = 24;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+  private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+
+  private static final int SNAPSHOT_MAGIC = 0x54545453;
+
+  private final File dir;
+
+  private final int segmentBytes;
+
+  // The shortest time between two fsyncs; 0 makes every commit durable.
+  private final long fsyncIntervalNanos;
+
+  private final CRC32 crc = new CRC32();
+
+  // The record being written, which is copied into the segment once complete.
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+
+  // The segment which is appended to, positioned after its last record.
+  private MappedByteBuffer segment;
+
+  private int segmentIndex;
+
+  // The sequence number of the next record. Numbers grow, but not always by one.
+  private long nextSeq;
+
+  // The sequence number of the last record which the snapshot includes.
+  private long snapshotSeq = -1;
+
+  // Whether records were appended since the last fsync.
+  private boolean dirty;
+
+  // Whether a commit has not been forced yet, which the timer then forces.
+  private boolean unforcedCommit;
+
+  // Forces the commits which wait, while the journal is open with an fsync interval.
+  private ScheduledExecutorService syncer;
+
+  private long lastForce = System.nanoTime();
+
+  // Where the journal ended at the last commit, which a rollback goes back to.
+  private int committedIndex;
+
+  private int committedPosition;
+
+  private long forceCount;
+
+  /**
+   * The constructor. Nothing is read until the journal is recovered or opened.
+   * @param dir The directory of the segment files
+   * @param segmentBytes The size of a new segment file in bytes
+   * @param fsyncIntervalMs The shortest time in milliseconds between two fsyncs
+   */
+  public MoveJournal(File dir, int segmentBytes, long fsyncIntervalMs) {
+    if (segmentBytes < RECORD_BYTES) {
+      throw new IllegalArgumentException("A segment must hold at least one record.");
+    }
+    this.dir = dir;
+    this.segmentBytes = segmentBytes - segmentBytes % RECORD_BYTES;
+    this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+  }
+
+  /**
+   * Find the end of the journal, unless it has been recovered.
+   * @throws IllegalStateException if the journal cannot be read
+   */
+  @Override
+  public synchronized void open() {
+    if (null == this.segment) {
+      scan(null);
+    }
+    long intervalMs = TimeUnit.NANOSECONDS.toMillis(this.fsyncIntervalNanos);
+    if (intervalMs > 0 && null == this.syncer) {
+      this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "journal-syncer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.syncer.scheduleWithFixedDelay(this::forceCommit, intervalMs, intervalMs,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public synchronized void addMove(String gameId, Move move) {
+    ByteBuffer buffer = begin(MOVE, gameId);
+    buffer.put(6, (byte) move.getPlayer().getId());
+    buffer.put(7, (byte) move.getPlayer().getType());
+    buffer.putShort(12, (short) move.getMoveX());
+    buffer.putShort(14, (short) move.getMoveY());
+    append();
+  }
+
+  @Override
+  public synchronized void updateGameBoard(String gameId, GameBoard gameBoard) {
+    ByteBuffer buffer = begin(BOARD, gameId);
+    int flags = (gameBoard.getGamestarted() ? 1 : 0) | (gameBoard.getIsDraw() ? 2 : 0);
+    buffer.put(6, (byte) flags);
+    buffer.put(7, (byte) gameBoard.getTurn());
+    buffer.put(8, (byte) gameBoard.getWinner());
+    buffer.put(9, type(gameBoard.getPlayer1()));
+    buffer.put(10, type(gameBoard.getPlayer2()));
+    buffer.putShort(12, (short) gameBoard.getSize());
+    buffer.putShort(14, (short) gameBoard.getWinLength());
+    append();
+  }
+
+  /**
+   * Append a record which makes recovery forget the game. The older records stay on disk.
+   * @param gameId the game to clear
+   */
+  @Override
+  public synchronized void cleanGame(String gameId) {
+    begin(CLEAN, gameId);
+    append();
+  }
+
+  /**
+   * Write the snapshot to a temporary file, force it and rename it over the last one.
+   * The records before the current segment are then deleted, since the snapshot holds them.
+   * @param gameBoards every game, keyed by game id
+   * @throws IllegalStateException if the snapshot cannot be written
+   */
+  @Override
+  public synchronized void snapshot(Map<String, GameBoard> gameBoards) {
+    long seq = this.nextSeq - 1;
+    File temp = new File(this.dir, SNAPSHOT_TEMP_FILE);
+    try {
+      writeSnapshot(temp, seq, gameBoards);
+      Files.move(temp.toPath(), new File(this.dir, SNAPSHOT_FILE).toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to write the snapshot.", e);
+    }
+    this.snapshotSeq = seq;
+    for (int index : segmentIndexes()) {
+      if (index < this.segmentIndex) {
+        segmentFile(index).delete();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void commit() {
+    this.committedIndex = this.segmentIndex;
+    this.committedPosition = this.segment.position();
+    if (!this.dirty) {
+      return;
+    }
+    long now = System.nanoTime();
+    if (now - this.lastForce >= this.fsyncIntervalNanos) {
+      force();
+      this.lastForce = now;
+    } else {
+      this.unforcedCommit = true;
+    }
+  }
+
+  /**
+   * Take back the records appended since the last commit. The segments begun since then are
+   * deleted, and the first record after the commit is zeroed, so recovery stops before it.
+   * @throws IllegalStateException if the segment of the last commit cannot be mapped
+   */
+  @Override
+  public synchronized void rollback() {
+    if (null == this.segment) {
+      return;
+    }
+    if (this.segmentIndex != this.committedIndex) {
+      for (int index = this.segmentIndex; index > this.committedIndex; index--) {
+        segmentFile(index).delete();
+      }
+      this.segmentIndex = this.committedIndex;
+      try {
+        this.segment = map(this.segmentIndex);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to roll back the journal.", e);
+      }
+    }
+    this.segment.position(this.committedPosition);
+    if (this.segment.remaining() >= RECORD_BYTES) {
+      this.segment.put(new byte[RECORD_BYTES]);
+      this.segment.position(this.committedPosition);
+      this.dirty = true;
+    }
+  }
+
+  /**
+   * Scan every segment and rebuild the games, then append after the last complete record.
+   * @return the gameBoards keyed by game id
+   * @throws IllegalStateException if the journal cannot be read
+   */
+  @Override
+  public synchronized Map<String, GameBoard> recoverAllGames() {
+    GameRecovery recovery = new GameRecovery();
+    scan(recovery);
+    return recovery.finish();
+  }
+
+  public synchronized long getForceCount() {
+    return this.forceCount;
+  }
+
+  /**
+   * Stop the timer, force the appended records to disk and unmap the segment.
+   */
+  @Override
+  public void close() {
+    // Outside the lock, which a running force of the timer needs to finish.
+    ScheduledExecutorService stopping;
+    synchronized (this) {
+      stopping = this.syncer;
+      this.syncer = null;
+    }
+    if (null != stopping) {
+      stopping.shutdown();
+      try {
+        stopping.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      if (null != this.segment) {
+        force();
+        this.segment = null;
+      }
+    }
+  }
+
+  // Force a commit which the fsync interval has let wait, unless a later commit has.
+  private synchronized void forceCommit() {
+    if (this.unforcedCommit && null != this.segment) {
+      try {
+        force();
+        this.lastForce = System.nanoTime();
+      } catch (RuntimeException e) {
+        // The timer stops for good if its task throws, so the next commit or tick tries again.
+        logger.error("Failed to force the journal.", e);
+      }
+    }
+  }
+
+  private ByteBuffer begin(byte kind, String gameId) {
+    byte[] id = gameId.getBytes(StandardCharsets.US_ASCII);
+    if (id.length > MAX_GAME_ID_LENGTH) {
+      throw new IllegalArgumentException("The game id is too long for the journal.");
+    }
+    Arrays.fill(this.record.array(), (byte) 0);
+    this.record.put(KIND_OFFSET, kind);
+    this.record.put(ID_LENGTH_OFFSET, (byte) id.length);
+    System.arraycopy(id, 0, this.record.array(), ID_OFFSET, id.length);
+    return this.record;
+  }
+
+  // The CRC is written with the rest of the record, so a torn record fails the check.
+  private void append() {
+    byte[] bytes = this.record.array();
+    this.record.putLong(SEQ_OFFSET, this.nextSeq++);
+    this.crc.reset();
+    this.crc.update(bytes, KIND_OFFSET, RECORD_BYTES - KIND_OFFSET);
+    this.record.putInt(CRC_OFFSET, (int) this.crc.getValue());
+    if (this.segment.remaining() < RECORD_BYTES) {
+      roll();
+    }
+    this.segment.put(bytes);
+    this.dirty = true;
+  }
+
+  private void force() {
+    if (this.dirty) {
+      this.segment.force();
+      this.forceCount++;
+      this.dirty = false;
+    }
+    this.unforcedCommit = false;
+  }
+
+  private void roll() {
+    force();
+    this.segmentIndex++;
+    try {
+      this.segment = map(this.segmentIndex);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to create a journal segment.", e);
+    }
+  }
+
+  // Read the segments in order, replaying them into recovery unless it is null.
+  private void scan(GameRecovery recovery) {
+    try {
+      this.dir.mkdirs();
+      this.snapshotSeq = readSnapshot(recovery);
+      List<Integer> indexes = segmentIndexes();
+      if (indexes.isEmpty()) {
+        indexes.add(0);
+      }
+      long lastSeq = -1;
+      for (int n = 0; n < indexes.size(); n++) {
+        MappedByteBuffer buffer = map(indexes.get(n));
+        lastSeq = replay(buffer, lastSeq, recovery);
+        if (buffer.remaining() >= RECORD_BYTES || n == indexes.size() - 1) {
+          // The journal ends here; anything after it was written after a torn record.
+          for (int rest = n + 1; rest < indexes.size(); rest++) {
+            segmentFile(indexes.get(rest)).delete();
+          }
+          this.segment = buffer;
+          this.segmentIndex = indexes.get(n);
+          this.committedIndex = this.segmentIndex;
+          this.committedPosition = buffer.position();
+          break;
+        }
+      }
+      // Skip a segment's worth of numbers, so a stale record after a torn one never fits in.
+      this.nextSeq = Math.max(lastSeq, this.snapshotSeq) + 1 + this.segmentBytes / RECORD_BYTES;
+      this.dirty = false;
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read the journal.", e);
+    }
+  }
+
+  // Replay the valid records of a segment and leave it positioned after them.
+  private long replay(MappedByteBuffer buffer, long lastSeq, GameRecovery recovery) {
+    ByteBuffer view = buffer.duplicate();
+    byte[] id = new byte[MAX_GAME_ID_LENGTH];
+    int offset = 0;
+    while (offset + RECORD_BYTES <= buffer.capacity()) {
+      byte kind = buffer.get(offset + KIND_OFFSET);
+      long seq = buffer.getLong(offset + SEQ_OFFSET);
+      int idLength = buffer.get(offset + ID_LENGTH_OFFSET);
+      if (kind < MOVE || kind > CLEAN || seq <= lastSeq
+          || idLength < 1 || idLength > MAX_GAME_ID_LENGTH) {
+        break;
+      }
+      view.limit(offset + RECORD_BYTES);
+      view.position(offset + KIND_OFFSET);
+      this.crc.reset();
+      this.crc.update(view);
+      if ((int) this.crc.getValue() != buffer.getInt(offset + CRC_OFFSET)) {
+        break;
+      }
+      if (null != recovery && seq > this.snapshotSeq) {
+        view.position(offset + ID_OFFSET);
+        view.get(id, 0, idLength);
+        apply(buffer, offset, kind, new String(id, 0, idLength, StandardCharsets.US_ASCII),
+            recovery);
+      }
+      lastSeq = seq;
+      offset += RECORD_BYTES;
+    }
+    buffer.position(offset);
+    return lastSeq;
+  }
+
+  private static void apply(ByteBuffer buffer, int offset, byte kind, String gameId,
+      GameRecovery recovery) {
+    if (MOVE == kind) {
+      recovery.move(gameId, buffer.get(offset + 6), (char) buffer.get(offset + 7),
+          buffer.getShort(offset + 12), buffer.getShort(offset + 14));
+    } else if (BOARD == kind) {
+      GameBoard gameBoard = new GameBoard(buffer.getShort(offset + 12),
+          buffer.getShort(offset + 14));
+      int flags = buffer.get(offset + 6);
+      gameBoard.setGamestarted(0 != (flags & 1));
+      gameBoard.setIsDraw(0 != (flags & 2));
+      gameBoard.setTurn(buffer.get(offset + 7));
+      gameBoard.setWinner(buffer.get(offset + 8));
+      gameBoard.setPlayer1(player(buffer.get(offset + 9), 1));
+      gameBoard.setPlayer2(player(buffer.get(offset + 10), 2));
+      recovery.gameBoard(gameId, gameBoard);
+    } else {
+      recovery.clean(gameId);
+    }
+  }
+
+  private static void writeSnapshot(File file, long seq, Map<String, GameBoard> gameBoards)
+      throws IOException {
+    try (FileOutputStream stream = new FileOutputStream(file)) {
+      CheckedOutputStream checked =
+          new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(seq);
+      out.writeInt(gameBoards.size());
+      for (Map.Entry<String, GameBoard> entry : gameBoards.entrySet()) {
+        GameBoard gameBoard = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeShort(gameBoard.getSize());
+        out.writeShort(gameBoard.getWinLength());
+        out.writeBoolean(gameBoard.getGamestarted());
+        out.writeBoolean(gameBoard.getIsDraw());
+        out.writeByte(gameBoard.getTurn());
+        out.writeByte(gameBoard.getWinner());
+        out.writeByte(type(gameBoard.getPlayer1()));
+        out.writeByte(type(gameBoard.getPlayer2()));
+        for (char[] row : gameBoard.getBoardState()) {
+          for (char cell : row) {
+            out.writeByte(cell);
+          }
+        }
+      }
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+      stream.getFD().sync();
+    }
+  }
+
+  // Read the snapshot into recovery, or only its sequence number if recovery is null.
+  private long readSnapshot(GameRecovery recovery) throws IOException {
+    File file = new File(this.dir, SNAPSHOT_FILE);
+    if (!file.exists()) {
+      return -1;
+    }
+    CheckedInputStream checked = new CheckedInputStream(
+        new BufferedInputStream(new FileInputStream(file)), new CRC32());
+    try (DataInputStream in = new DataInputStream(checked)) {
+      if (SNAPSHOT_MAGIC != in.readInt()) {
+        throw new IOException("Not a snapshot: " + file);
+      }
+      long seq = in.readLong();
+      if (null == recovery) {
+        return seq;
+      }
+      int count = in.readInt();
+      for (int n = 0; n < count; n++) {
+        String gameId = in.readUTF();
+        GameBoard gameBoard = new GameBoard(in.readShort(), in.readShort());
+        gameBoard.setGamestarted(in.readBoolean());
+        gameBoard.setIsDraw(in.readBoolean());
+        gameBoard.setTurn(in.readByte());
+        gameBoard.setWinner(in.readByte());
+        gameBoard.setPlayer1(player(in.readByte(), 1));
+        gameBoard.setPlayer2(player(in.readByte(), 2));
+        char[][] boardState = new char[gameBoard.getSize()][gameBoard.getSize()];
+        for (char[] row : boardState) {
+          for (int j = 0; j < row.length; j++) {
+            row[j] = (char) in.readByte();
+          }
+        }
+        gameBoard.setBoardState(boardState);
+        recovery.snapshot(gameId, gameBoard);
+      }
+      long checksum = checked.getChecksum().getValue();
+      if (checksum != in.readLong()) {
+        throw new IOException("The snapshot is corrupted: " + file);
+      }
+      return seq;
+    }
+  }
+
+  private static byte type(Player player) {
+    return (null == player) ? 0 : (byte) player.getType();
+  }
+
+  private static Player player(byte type, int id) {
+    return (0 == type) ? null : new Player((char) type, id);
+  }
+
+  private List<Integer> segmentIndexes() {
+    List<Integer> indexes = new ArrayList<>();
+    String[] names = this.dir.list();
+    if (null == names) {
+      return indexes;
+    }
+    for (String name : names) {
+      if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+        try {
+          indexes.add(Integer.parseInt(
+              name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not a segment.
+        }
+      }
+    }
+    Collections.sort(indexes);
+    return indexes;
+  }
+
+  private File segmentFile(int index) {
+    return new File(this.dir, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+  }
+
+  // Map a segment, creating it if needed. The mapping stays valid once the file is closed.
+  private MappedByteBuffer map(int index) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw")) {
+      if (0 == file.length()) {
+        file.setLength(this.segmentBytes);
+      }
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+    }
+  }
+}
@@ -3,24 +3,54 @@ package utils;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import models.GameBoard;
 import models.Move;
 import models.Player;
+import org.sqlite.SQLiteConfig;
 
 
 public class MyDatabase {
+  
+  // The game which the single-game methods, routes and UI operate on.
+  public static final String DEFAULT_GAME_ID = "default";
+  
+  // The definition of the column which keys every row by its game.
+  private static final String GAME_ID_COLUMN =
+      "gameId varchar(64) not null default '" + DEFAULT_GAME_ID + "'";
+  
+  private static final String SIZE_COLUMN = "size int not null default 3";
+  
+  private static final String WIN_LENGTH_COLUMN = "winLength int not null default 3";
+  
+  // How an empty cell is written in the boardState of a snapshot.
+  private static final char EMPTY_CELL = '-';
+  
   /**
    * Create new connection.
    * @return Connection
    */
   public Connection createConnection() {
+    return createConnection("4156.db");
+  }
+  
+  /**
+   * Create new connection to the given database file.
+   * @param path The path of the database file
+   * @return Connection
+   */
+  public Connection createConnection(String path) {
     Connection conn = null;
     try {
       Class.forName("org.sqlite.JDBC");
-      conn = DriverManager.getConnection("jdbc:sqlite:4156.db");
+      conn = DriverManager.getConnection("jdbc:sqlite:" + path);
       conn.setAutoCommit(false);
     } catch (Exception e) {
       System.out.println("Failed to create connection.");
@@ -30,6 +60,34 @@ public class MyDatabase {
     return conn;
   }
   
+  /**
+   * Create new connection to a database in WAL mode, where readers never block the writer.
+   * The writer does not checkpoint on its own; see ConnectionPool.checkpointIfNeeded.
+   * @param path The path of the database file
+   * @param readOnly Whether the connection only reads
+   * @return Connection, which is in auto-commit mode if it only reads
+   */
+  public Connection createWalConnection(String path, boolean readOnly) {
+    Connection conn = null;
+    try {
+      Class.forName("org.sqlite.JDBC");
+      SQLiteConfig config = new SQLiteConfig();
+      config.setReadOnly(readOnly);
+      conn = DriverManager.getConnection("jdbc:sqlite:" + path, config.toProperties());
+      if (!readOnly) {
+        try (Statement stat = conn.createStatement()) {
+          stat.execute("pragma journal_mode = WAL;");
+          stat.execute("pragma wal_autocheckpoint = 0;");
+        }
+        conn.setAutoCommit(false);
+      }
+    } catch (Exception e) {
+      System.out.println("Failed to create connection.");
+      System.out.println(e.getMessage());
+    }
+    return conn;
+  }
+  
   /**
    * Create new table if the table not exists.
    */
@@ -40,17 +98,38 @@ public class MyDatabase {
       stat = conn.createStatement();
       String sql;
       if ("move".equals(tableName)) {
-        sql = "create table if not exists move(playerId int, playerType char(4), x int, y int);";
+        sql = "create table if not exists move(" + GAME_ID_COLUMN + ", "
+                + "playerId int, playerType char(4), x int, y int);";
         stat.executeUpdate(sql);
+        addColumnIfMissing(stat, "move", "gameId", GAME_ID_COLUMN);
+        // The snapshot stands for the moves up to its seq, so it is created with them.
+        stat.executeUpdate("create table if not exists snapshot("
+                + "gameId varchar(64) primary key, seq integer not null, "
+                + "gameStarted boolean, turn int, winner int, isDraw boolean, "
+                + "player1 char(4), player2 char(4), "
+                + SIZE_COLUMN + ", " + WIN_LENGTH_COLUMN + ", boardState text not null);");
       } else {
-        sql = "create table if not exists gameBoard(" + "gameStarted boolean, "
+        sql = "create table if not exists gameBoard(" + GAME_ID_COLUMN + ", "
+                + "gameStarted boolean, "
                 + "turn int, " + "winner int, " + "isDraw boolean, "
-                + "player1 char(4), " + "player2 char(4)" + ");";
+                + "player1 char(4), " + "player2 char(4), "
+                + SIZE_COLUMN + ", " + WIN_LENGTH_COLUMN + ");";
         stat.executeUpdate(sql);
-        rs = stat.executeQuery("select count(*) from gameBoard;");
+        addColumnIfMissing(stat, "gameBoard", "gameId", GAME_ID_COLUMN);
+        addColumnIfMissing(stat, "gameBoard", "size", SIZE_COLUMN);
+        addColumnIfMissing(stat, "gameBoard", "winLength", WIN_LENGTH_COLUMN);
+        // Keep the last row of each game, so that a game can be upserted by its id.
+        stat.executeUpdate("delete from gameBoard where rowid not in "
+            + "(select max(rowid) from gameBoard group by gameId);");
+        stat.executeUpdate("create unique index if not exists gameBoard_gameId "
+            + "on gameBoard(gameId);");
+        rs = stat.executeQuery(String.format(
+            "select count(*) from gameBoard where gameId = '%s';", DEFAULT_GAME_ID));
         rs.next();
         if (0 == rs.getInt(1)) {
-          stat.executeUpdate("insert into gameBoard values(false, 1, 0, false, null, null);");
+          stat.executeUpdate(String.format("insert into gameBoard(gameId, gameStarted, turn, "
+              + "winner, isDraw, player1, player2) values('%s', false, 1, 0, false, null, null);",
+              DEFAULT_GAME_ID));
         }
       }
     } catch (Exception e) {
@@ -74,11 +153,44 @@ public class MyDatabase {
   }
   
   /**
-   * insert a record.
+   * Add a column to a table created by an older version of the server.
+   * The existing rows get the default value of the column.
+   * @param stat Statement
+   * @param tableName the table to migrate
+   * @param columnName the name of the column
+   * @param definition the definition of the column
+   * @throws SQLException if the table cannot be inspected or altered
+   */
+  private void addColumnIfMissing(Statement stat, String tableName, String columnName,
+      String definition) throws SQLException {
+    boolean found = false;
+    try (ResultSet rs = stat.executeQuery("pragma table_info(" + tableName + ");")) {
+      while (rs.next()) {
+        if (columnName.equalsIgnoreCase(rs.getString("name"))) {
+          found = true;
+        }
+      }
+    }
+    if (!found) {
+      stat.executeUpdate("alter table " + tableName + " add column " + definition + ";");
+    }
+  }
+  
+  /**
+   * insert a record for the default game.
    * @param move move information
-   * @return
    */
   public void addMove(Connection conn, Move move) {
+    addMove(conn, DEFAULT_GAME_ID, move);
+  }
+  
+  /**
+   * insert a record.
+   * @param conn Connection
+   * @param gameId the game which the move belongs to
+   * @param move move information
+   */
+  public void addMove(Connection conn, String gameId, Move move) {
     Statement stat = null;
     try {
       stat = conn.createStatement();
@@ -86,7 +198,8 @@ public class MyDatabase {
       char type = move.getPlayer().getType();
       int x = move.getMoveX();
       int y = move.getMoveY();
-      String sql = String.format("insert into move values(%d, '%s', %d, %d);", id, type, x, y);
+      String sql = String.format("insert into move(gameId, playerId, playerType, x, y) "
+          + "values('%s', %d, '%s', %d, %d);", gameId, id, type, x, y);
       stat.executeUpdate(sql);
     } catch (Exception e) {
       e.printStackTrace();
@@ -124,50 +237,76 @@ public class MyDatabase {
   }
   
   /**
-   * recover from the database.
+   * recover the default game from the database.
    */
   public GameBoard recoverFromDatabase(Connection conn) {
+    return recoverFromDatabase(conn, DEFAULT_GAME_ID);
+  }
+  
+  /**
+   * recover one game from the database.
+   * @param conn Connection
+   * @param gameId the game to recover
+   * @return the recovered gameBoard, which is empty if the game has no record
+   */
+  public GameBoard recoverFromDatabase(Connection conn, String gameId) {
+    GameBoard gameBoard = recover(conn, gameId).get(gameId);
+    if (null == gameBoard) {
+      gameBoard = new GameBoard();
+      gameBoard.setBoardState(new char[gameBoard.getSize()][gameBoard.getSize()]);
+    }
+    return gameBoard;
+  }
+  
+  /**
+   * recover every game from the database.
+   * @param conn Connection
+   * @return the recovered gameBoards keyed by game id
+   */
+  public Map<String, GameBoard> recoverAllGames(Connection conn) {
+    return recover(conn, null);
+  }
+  
+  /**
+   * recover the games from the database: their snapshot, their current gameBoard,
+   * and the moves stored after the snapshot.
+   * @param conn Connection
+   * @param gameId the game to recover, or null to recover every game
+   * @return the recovered gameBoards keyed by game id
+   */
+  private Map<String, GameBoard> recover(Connection conn, String gameId) {
     Statement stat = null;
     ResultSet rs1 = null;
     ResultSet rs2 = null;
-    GameBoard gameBoard = new GameBoard();
+    ResultSet rs3 = null;
+    GameRecovery recovery = new GameRecovery();
+    Map<String, GameBoard> gameBoards = new LinkedHashMap<>();
+    String filter = (null == gameId) ? "" : String.format(" and gameId = '%s'", gameId);
     try {
       stat = conn.createStatement();
-      String sql = "Select * from gameBoard;";
+      long seq = 0;
+      String sql = "select * from snapshot where 1" + filter + ";";
+      rs3 = stat.executeQuery(sql);
+      while (rs3.next()) {
+        GameBoard gameBoard = readGameBoard(rs3);
+        gameBoard.setBoardState(decodeBoardState(rs3.getString("boardState"), gameBoard.getSize()));
+        recovery.snapshot(rs3.getString("gameId"), gameBoard);
+        seq = Math.max(seq, rs3.getLong("seq"));
+      }
+      sql = "Select * from gameBoard where 1" + filter + ";";
       rs1 = stat.executeQuery(sql);
       while (rs1.next()) {
-        gameBoard.setGamestarted(rs1.getBoolean("gameStarted"));
-        gameBoard.setTurn(rs1.getInt("turn"));
-        gameBoard.setWinner(rs1.getInt("winner"));
-        gameBoard.setIsDraw(rs1.getBoolean("isDraw"));
-        if (null != rs1.getString("player1")) {
-          gameBoard.setPlayer1(new Player(rs1.getString("player1").charAt(0), 1));
-        }
-        if (null != rs1.getString("player2")) {
-          gameBoard.setPlayer2(new Player(rs1.getString("player2").charAt(0), 2));
-        }
+        recovery.gameBoard(rs1.getString("gameId"), readGameBoard(rs1));
       }
-      sql = "select * from move;";
+      // The rowid is the sequence number of a move, so only the moves after the snapshot
+      // are read.
+      sql = "select * from move where rowid > " + seq + filter + " order by rowid;";
       rs2 = stat.executeQuery(sql);
-      char[][] boardState = new char[3][3];
       while (rs2.next()) {
-        int id = rs2.getInt("playerId");
-        char type = rs2.getString("playerType").charAt(0);
-        if (null == gameBoard.getPlayer1()) {
-          if (1 == id) {
-            gameBoard.setPlayer1(new Player(type, id));
-            gameBoard.setPlayer2(new Player(('X' == type ? 'O' : 'X'), 2));
-          } else {
-            gameBoard.setPlayer2(new Player(type, id));
-            gameBoard.setPlayer1(new Player(('X' == type ? 'O' : 'X'), 1));
-          }
-        }
-        int x = rs2.getInt("x");
-        int y = rs2.getInt("y");
-        boardState[x][y] = type;
+        recovery.move(rs2.getString("gameId"), rs2.getInt("playerId"),
+            rs2.getString("playerType").charAt(0), rs2.getInt("x"), rs2.getInt("y"));
       }
-      gameBoard.setBoardState(boardState);
-      gameBoard.updateState();
+      gameBoards = recovery.finish();
       System.out.println("recover from DataBase successfully.");
       
     } catch (Exception e) {
@@ -196,12 +335,72 @@ public class MyDatabase {
       } catch (SQLException e) {
         e.printStackTrace();
       }
+      try {
+        if (null != rs3) {
+          rs3.close();
+        }
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+    return gameBoards;
+  }
+  
+  /**
+   * Read the state of a gameBoard, without its boardState, from a row.
+   * @param rs the row, of the gameBoard or the snapshot table
+   * @return the gameBoard
+   * @throws SQLException if a column cannot be read
+   */
+  private GameBoard readGameBoard(ResultSet rs) throws SQLException {
+    GameBoard gameBoard = new GameBoard(rs.getInt("size"), rs.getInt("winLength"));
+    gameBoard.setGamestarted(rs.getBoolean("gameStarted"));
+    gameBoard.setTurn(rs.getInt("turn"));
+    gameBoard.setWinner(rs.getInt("winner"));
+    gameBoard.setIsDraw(rs.getBoolean("isDraw"));
+    if (null != rs.getString("player1")) {
+      gameBoard.setPlayer1(new Player(rs.getString("player1").charAt(0), 1));
+    }
+    if (null != rs.getString("player2")) {
+      gameBoard.setPlayer2(new Player(rs.getString("player2").charAt(0), 2));
     }
     return gameBoard;
   }
   
   /**
-   * Clear the table.
+   * Write a boardState as one character per cell, row by row.
+   * @param boardState the boardState
+   * @return the cells
+   */
+  public static String encodeBoardState(char[][] boardState) {
+    StringBuilder cells = new StringBuilder(boardState.length * boardState.length);
+    for (char[] row : boardState) {
+      for (char cell : row) {
+        cells.append((0 == cell) ? EMPTY_CELL : cell);
+      }
+    }
+    return cells.toString();
+  }
+  
+  /**
+   * Read a boardState written by encodeBoardState.
+   * @param cells the cells
+   * @param size the size of the board
+   * @return the boardState
+   */
+  public static char[][] decodeBoardState(String cells, int size) {
+    char[][] boardState = new char[size][size];
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        char cell = cells.charAt(i * size + j);
+        boardState[i][j] = (EMPTY_CELL == cell) ? 0 : cell;
+      }
+    }
+    return boardState;
+  }
+  
+  /**
+   * Clear the table for every game.
    * @param conn Connection
    */
   public void cleanTable(Connection conn) {
@@ -210,6 +409,7 @@ public class MyDatabase {
       stat = conn.createStatement();
       stat.executeUpdate("delete from gameBoard;");
       stat.executeUpdate("delete from move;");
+      stat.executeUpdate("delete from snapshot;");
     } catch (Exception e) {
       e.printStackTrace();
     } finally {
@@ -224,20 +424,58 @@ public class MyDatabase {
   }
   
   /**
-   * update the state of gameBoard in the database.
+   * Clear the records of one game.
+   * @param conn Connection
+   * @param gameId the game to clear
+   */
+  public void cleanTable(Connection conn, String gameId) {
+    Statement stat = null;
+    try {
+      stat = conn.createStatement();
+      stat.executeUpdate(String.format("delete from gameBoard where gameId = '%s';", gameId));
+      stat.executeUpdate(String.format("delete from move where gameId = '%s';", gameId));
+      stat.executeUpdate(String.format("delete from snapshot where gameId = '%s';", gameId));
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        if (null != stat) {
+          stat.close();
+        }   
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+  
+  /**
+   * update the state of the default gameBoard in the database.
    * @param conn Connection 
    * @param gameBoard GameBoard
    */
   public void updateGameBoard(Connection conn, GameBoard gameBoard) {
+    updateGameBoard(conn, DEFAULT_GAME_ID, gameBoard);
+  }
+  
+  /**
+   * update the state of gameBoard in the database.
+   * @param conn Connection 
+   * @param gameId the game which the gameBoard belongs to
+   * @param gameBoard GameBoard
+   */
+  public void updateGameBoard(Connection conn, String gameId, GameBoard gameBoard) {
     Statement stat = null;
     try {
       stat = conn.createStatement();
-      stat.executeUpdate("delete from gameBoard;");
-      String sql = String.format("insert into gameBoard values (%s, %d, %d, %s, %s, %s);", 
-          gameBoard.getGamestarted(), gameBoard.getTurn(), 
+      stat.executeUpdate(String.format("delete from gameBoard where gameId = '%s';", gameId));
+      String sql = String.format("insert into gameBoard(gameId, gameStarted, turn, winner, "
+          + "isDraw, player1, player2, size, winLength) "
+          + "values ('%s', %s, %d, %d, %s, %s, %s, %d, %d);", 
+          gameId, gameBoard.getGamestarted(), gameBoard.getTurn(), 
           gameBoard.getWinner(), gameBoard.getIsDraw(), 
           (null == gameBoard.getPlayer1() ? null : "'" + gameBoard.getPlayer1().getType() + "'"), 
-          (null == gameBoard.getPlayer2() ? null : "'" + gameBoard.getPlayer2().getType() + "'"));
+          (null == gameBoard.getPlayer2() ? null : "'" + gameBoard.getPlayer2().getType() + "'"),
+          gameBoard.getSize(), gameBoard.getWinLength());
       stat.executeUpdate(sql);
     } catch (Exception e) {
       e.printStackTrace();
@@ -252,6 +490,56 @@ public class MyDatabase {
     }
   }
   
+  /**
+   * Read the moves of a game in the order they were made.
+   * @param conn Connection
+   * @param gameId the game to read
+   * @return the moves
+   */
+  public List<Move> getMoves(Connection conn, String gameId) {
+    List<Move> moves = new ArrayList<>();
+    try (PreparedStatement stat = conn.prepareStatement(
+        "select playerId, playerType, x, y from move where gameId = ? order by rowid;")) {
+      stat.setString(1, gameId);
+      try (ResultSet rs = stat.executeQuery()) {
+        while (rs.next()) {
+          Player player = new Player(rs.getString("playerType").charAt(0), rs.getInt("playerId"));
+          moves.add(new Move(player, rs.getInt("x"), rs.getInt("y")));
+        }
+      }
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    return moves;
+  }
+  
+  /**
+   * Count the stored moves of every game.
+   * @param conn Connection
+   * @return the number of moves, or -1 if they cannot be counted
+   */
+  public long countMoves(Connection conn) {
+    try (Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("select count(*) from move;")) {
+      rs.next();
+      return rs.getLong(1);
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return -1;
+    }
+  }
+  
+  /**
+   * Prepare the statements which persist the games through the given connection.
+   * The tables must have been created.
+   * @param conn Connection
+   * @return The prepared statements
+   * @throws SQLException if a statement cannot be prepared
+   */
+  public GameStatements prepareStatements(Connection conn) throws SQLException {
+    return new GameStatements(conn);
+  }
+  
   /**
    * insert into gameBoard.
    * @param conn Connections
@@ -0,0 +1,106 @@
+package utils;
+
+import java.sql.SQLException;
+import java.util.Map;
+import models.GameBoard;
+import models.Move;
+
+/**
+ * Store the games in the SQLite database of a connection pool.
+ * Writes go through the prepared statements of the writer connection,
+ * and the WAL is checkpointed after a commit when it has grown past its threshold.
+ */
+public class SqliteGameStore implements GameStore {
+
+  private final MyDatabase db;
+
+  private final ConnectionPool pool;
+
+  // The statements of the writer connection, prepared when the store is opened.
+  private GameStatements statements;
+
+  /**
+   * The constructor.
+   * @param db The database
+   * @param pool The connections, whose writer is used only by this store
+   */
+  public SqliteGameStore(MyDatabase db, ConnectionPool pool) {
+    this.db = db;
+    this.pool = pool;
+  }
+
+  /**
+   * Prepare the statements.
+   * @throws IllegalStateException if the statements cannot be prepared
+   */
+  @Override
+  public void open() {
+    if (null != this.statements) {
+      return;
+    }
+    try {
+      this.statements = this.db.prepareStatements(this.pool.getWriter());
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to prepare the statements.", e);
+    }
+  }
+
+  @Override
+  public void addMove(String gameId, Move move) {
+    this.statements.addMove(gameId, move);
+  }
+
+  @Override
+  public void updateGameBoard(String gameId, GameBoard gameBoard) {
+    this.statements.updateGameBoard(gameId, gameBoard);
+  }
+
+  @Override
+  public void cleanGame(String gameId) {
+    this.statements.cleanGame(gameId);
+  }
+
+  @Override
+  public void snapshot(Map<String, GameBoard> gameBoards) {
+    this.statements.snapshot(gameBoards);
+  }
+
+  /**
+   * Commit the transaction of the writer connection.
+   * @throws IllegalStateException if the commit fails, so the writer can roll it back
+   */
+  @Override
+  public void commit() {
+    try {
+      this.pool.getWriter().commit();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to commit.", e);
+    }
+    this.pool.checkpointIfNeeded();
+  }
+
+  @Override
+  public void rollback() {
+    try {
+      this.pool.getWriter().rollback();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Failed to roll back.", e);
+    }
+  }
+
+  @Override
+  public Map<String, GameBoard> recoverAllGames() {
+    return this.pool.read(this.db::recoverAllGames);
+  }
+
+  /**
+   * Close the statements. The connections belong to the pool.
+   */
+  @Override
+  public void close() {
+    if (null != this.statements) {
+      this.statements.close();
+      this.statements = null;
+    }
+  }
+}
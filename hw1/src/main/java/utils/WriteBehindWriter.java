@@ -0,0 +1,401 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import models.GameBoard;
+import models.Move;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persist the changes of every game on a dedicated thread.
+ * The request threads only queue their changes, and the writer commits
+ * all the changes it has collected, from every game, in one transaction.
+ * The writer also replays every change onto its own copy of the games,
+ * which it stores as a snapshot every so many changes and when it stops.
+ * A batch which fails is rolled back and its flushes fail, and the writer carries on.
+ * The copy of the games is then loaded again from the store, and snapshots are paused
+ * until that succeeds.
+ */
+public class WriteBehindWriter {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteBehindWriter.class);
+
+  /**
+   * A change which is applied to the store and to the copy of the games by the writer.
+   */
+  private interface Write {
+    void apply(GameStore store, GameRecovery games);
+  }
+
+  /**
+   * A marker which is completed once everything queued before it is committed.
+   */
+  private static class Flush implements Write {
+    private final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+    @Override
+    public void apply(GameStore store, GameRecovery games) {
+    }
+  }
+
+  // The most changes which are committed in one transaction.
+  private static final int MAX_BATCH = 4096;
+
+  private final GameStore store;
+
+  private final BlockingQueue<Write> queue;
+
+  // The longest time a change waits for more changes before it is committed.
+  private final long flushIntervalNanos;
+
+  private final AtomicLong commitCount = new AtomicLong();
+
+  private final AtomicLong writeCount = new AtomicLong();
+
+  private final AtomicLong snapshotCount = new AtomicLong();
+
+  private final AtomicLong failureCount = new AtomicLong();
+
+  // The number of changes after which a snapshot is stored.
+  private final long snapshotEvery;
+
+  // The games as of the last applied change, used only by the writer thread once it runs.
+  private final GameRecovery games = new GameRecovery();
+
+  private long writesSinceSnapshot;
+
+  // Whether the copy of the games matches the store, which a snapshot relies on.
+  // The writer thread clears it when a batch fails, and sets it again once it has
+  // loaded the games from the store.
+  private volatile boolean recovered;
+
+  private volatile boolean running;
+
+  private Thread thread;
+
+  /**
+   * The constructor.
+   * @param store The store, which is written only by the writer
+   * @param flushIntervalMs The longest time in milliseconds before a change is committed
+   * @param queueSize The most changes which can wait; callers block when it is full
+   * @param snapshotEvery The number of changes after which a snapshot is stored
+   */
+  public WriteBehindWriter(GameStore store, long flushIntervalMs, int queueSize,
+      long snapshotEvery) {
+    this.store = store;
+    this.snapshotEvery = snapshotEvery;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+  }
+
+  /**
+   * Recover the games from the store, before the writer starts.
+   * @return the gameBoards keyed by game id, which the caller may change
+   */
+  public synchronized Map<String, GameBoard> recover() {
+    Map<String, GameBoard> gameBoards = this.store.recoverAllGames();
+    load(gameBoards);
+    return gameBoards;
+  }
+
+  /**
+   * Open the store and start the writer thread.
+   * @throws IllegalStateException if the games have not been recovered since the last stop
+   */
+  public synchronized void start() {
+    if (this.running) {
+      return;
+    }
+    if (!this.recovered) {
+      throw new IllegalStateException("The games must be recovered before the writer starts.");
+    }
+    this.store.open();
+    this.running = true;
+    this.thread = new Thread(this::run, "write-behind-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Commit everything which is queued and stop the writer thread.
+   */
+  public synchronized void close() {
+    if (!this.running) {
+      return;
+    }
+    try {
+      flush();
+    } catch (IllegalStateException e) {
+      // The writer has logged the failure, and still stops.
+    }
+    this.running = false;
+    try {
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.store.close();
+    this.recovered = false;
+  }
+
+  /**
+   * Queue a move.
+   * @param gameId The game which the move belongs to
+   * @param move The move
+   */
+  public void addMove(String gameId, Move move) {
+    enqueue((store, games) -> {
+      store.addMove(gameId, move);
+      games.move(gameId, move.getPlayer().getId(), move.getPlayer().getType(),
+          move.getMoveX(), move.getMoveY());
+    });
+  }
+
+  /**
+   * Queue the state of a gameBoard. Only the fields stored in the gameBoard table are kept,
+   * so the caller may keep changing the gameBoard.
+   * @param gameId The game which the gameBoard belongs to
+   * @param gameBoard The gameBoard
+   */
+  public void updateGameBoard(String gameId, GameBoard gameBoard) {
+    GameBoard copy = copyState(gameBoard);
+    enqueue((store, games) -> {
+      store.updateGameBoard(gameId, copy);
+      games.gameBoard(gameId, copy);
+    });
+  }
+
+  /**
+   * Queue the removal of every record of a game.
+   * @param gameId The game to clear
+   */
+  public void cleanGame(String gameId) {
+    enqueue((store, games) -> {
+      store.cleanGame(gameId);
+      games.clean(gameId);
+    });
+  }
+
+  /**
+   * Wait until everything queued so far is committed.
+   */
+  public void flush() {
+    try {
+      flushAsync().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("The writer failed to commit.", e.getCause());
+    }
+  }
+
+  /**
+   * Find out when everything queued so far is committed, without waiting for it.
+   * The future is completed on the writer thread, so what depends on it should be quick
+   * or run elsewhere.
+   * @return A future which is completed after the commit
+   */
+  public CompletableFuture<Void> flushAsync() {
+    if (!this.running) {
+      return CompletableFuture.completedFuture(null);
+    }
+    Flush flush = new Flush();
+    enqueue(flush);
+    return flush.committed;
+  }
+
+  public long getCommitCount() {
+    return this.commitCount.get();
+  }
+
+  public long getWriteCount() {
+    return this.writeCount.get();
+  }
+
+  public int getQueueDepth() {
+    return this.queue.size();
+  }
+
+  public long getSnapshotCount() {
+    return this.snapshotCount.get();
+  }
+
+  public long getFailureCount() {
+    return this.failureCount.get();
+  }
+
+  /**
+   * Find out whether snapshots are paused, because the games could not be loaded again
+   * after a batch failed. The writer tries again after each batch it commits.
+   * @return true while the writer runs without taking snapshots
+   */
+  public boolean isSnapshotPaused() {
+    return this.running && !this.recovered;
+  }
+
+  // Copy the fields stored in the gameBoard table.
+  private static GameBoard copyState(GameBoard gameBoard) {
+    GameBoard copy = new GameBoard(gameBoard.getSize(), gameBoard.getWinLength());
+    copy.setPlayer1(gameBoard.getPlayer1());
+    copy.setPlayer2(gameBoard.getPlayer2());
+    copy.setGamestarted(gameBoard.getGamestarted());
+    copy.setTurn(gameBoard.getTurn());
+    copy.setWinner(gameBoard.getWinner());
+    copy.setIsDraw(gameBoard.getIsDraw());
+    return copy;
+  }
+
+  private static GameBoard copy(GameBoard gameBoard) {
+    GameBoard copy = copyState(gameBoard);
+    copy.setBoardState(gameBoard.getBoardState());
+    return copy;
+  }
+
+  private void enqueue(Write write) {
+    try {
+      this.queue.put(write);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while queueing a write.", e);
+    }
+  }
+
+  private void run() {
+    List<Write> batch = new ArrayList<>();
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        Write first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+        if (null == first) {
+          continue;
+        }
+        batch.add(first);
+        collect(batch);
+      } catch (InterruptedException e) {
+        // Commit what has been collected and keep draining.
+      }
+      if (batch.isEmpty()) {
+        continue;
+      }
+      try {
+        for (Write write : batch) {
+          write.apply(this.store, this.games);
+          if (!(write instanceof Flush)) {
+            this.writesSinceSnapshot++;
+          }
+        }
+        if (this.recovered && this.writesSinceSnapshot >= this.snapshotEvery) {
+          snapshot();
+        }
+        this.store.commit();
+      } catch (RuntimeException e) {
+        fail(batch, e);
+        batch.clear();
+        continue;
+      }
+      this.commitCount.incrementAndGet();
+      if (!this.recovered) {
+        reload();
+      }
+      for (Write write : batch) {
+        if (write instanceof Flush) {
+          ((Flush) write).committed.complete(null);
+        } else {
+          this.writeCount.incrementAndGet();
+        }
+      }
+      batch.clear();
+    }
+    if (this.recovered && this.writesSinceSnapshot > 0) {
+      try {
+        snapshot();
+        this.store.commit();
+      } catch (RuntimeException e) {
+        logger.error("Failed to store the last snapshot.", e);
+        rollback();
+      }
+    }
+  }
+
+  // Roll back a batch which failed and fail its flushes. The copy of the games has the
+  // writes which were taken back, so it is loaded again from the store.
+  private void fail(List<Write> batch, RuntimeException e) {
+    logger.error("Failed to commit {} writes.", batch.size(), e);
+    rollback();
+    this.recovered = false;
+    this.failureCount.incrementAndGet();
+    reload();
+    for (Write write : batch) {
+      if (write instanceof Flush) {
+        ((Flush) write).committed.completeExceptionally(e);
+      }
+    }
+  }
+
+  // Load the copy of the games from what the store has committed, so snapshots resume.
+  private void reload() {
+    try {
+      load(this.store.recoverAllGames());
+      logger.info("Reloaded the games; snapshots resume.");
+    } catch (RuntimeException e) {
+      logger.error("Failed to reload the games; snapshots are paused.", e);
+    }
+  }
+
+  private void load(Map<String, GameBoard> gameBoards) {
+    this.games.clear();
+    for (Map.Entry<String, GameBoard> entry : gameBoards.entrySet()) {
+      this.games.snapshot(entry.getKey(), copy(entry.getValue()));
+    }
+    this.writesSinceSnapshot = 0;
+    this.recovered = true;
+  }
+
+  private void rollback() {
+    try {
+      this.store.rollback();
+    } catch (RuntimeException e) {
+      logger.error("Failed to roll back.", e);
+    }
+  }
+
+  private void snapshot() {
+    this.store.snapshot(this.games.finish());
+    this.snapshotCount.incrementAndGet();
+    this.writesSinceSnapshot = 0;
+  }
+
+  // Wait up to the flush interval for more writes, unless someone is waiting for a flush.
+  private void collect(List<Write> batch) throws InterruptedException {
+    long deadline = System.nanoTime() + this.flushIntervalNanos;
+    this.queue.drainTo(batch, MAX_BATCH - batch.size());
+    while (batch.size() < MAX_BATCH && !containsFlush(batch)) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return;
+      }
+      Write next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+      if (null == next) {
+        return;
+      }
+      batch.add(next);
+      this.queue.drainTo(batch, MAX_BATCH - batch.size());
+    }
+  }
+
+  private static boolean containsFlush(List<Write> batch) {
+    for (Write write : batch) {
+      if (write instanceof Flush) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
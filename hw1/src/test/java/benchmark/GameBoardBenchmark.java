@@ -0,0 +1,144 @@
+package benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import models.GameBoard;
+import models.Move;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measure the game engine: a whole game of tryMove, in the same random order of cells every
+ * time, which stops before the first move that would win, and updateState on the board which
+ * that game leaves. A game starts from a new gameBoard, as after /newgame, which is made
+ * before each call outside the measured time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBoardBenchmark {
+
+  @Param({"3", "15", "100"})
+  public int size;
+
+  // The moves of the game, by the two players in turn.
+  private Move[] moves;
+
+  private GameBoard played;
+
+  /**
+   * Find the moves of the game, and play them once for updateState.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    int[] cells = new int[size * size];
+    for (int cell = 0; cell < cells.length; cell++) {
+      cells[cell] = cell;
+    }
+    Random random = new Random(4156);
+    for (int k = cells.length - 1; k > 0; k--) {
+      int other = random.nextInt(k + 1);
+      int cell = cells[k];
+      cells[k] = cells[other];
+      cells[other] = cell;
+    }
+    GameBoard gameBoard = newGame();
+    moves = new Move[cells.length];
+    int count = 0;
+    for (int cell : cells) {
+      GameBoard next = newGame();
+      next.setBoardState(gameBoard.getBoardState());
+      next.setTurn(gameBoard.getTurn());
+      Move move = new Move((1 == gameBoard.getTurn()) ? gameBoard.getPlayer1()
+          : gameBoard.getPlayer2(), cell / size, cell % size);
+      next.tryMove(move);
+      if (0 != next.getWinner()) {
+        continue;
+      }
+      gameBoard.tryMove(move);
+      moves[count++] = move;
+    }
+    moves = Arrays.copyOf(moves, count);
+    played = gameBoard;
+  }
+
+  /**
+   * The new gameBoard of one game.
+   */
+  @State(Scope.Thread)
+  public static class NewGame {
+
+    private GameBoard gameBoard;
+
+    /**
+     * Make the gameBoard before each call.
+     * @param benchmark The benchmark, which knows the size
+     */
+    @Setup(Level.Invocation)
+    public void setUp(GameBoardBenchmark benchmark) {
+      gameBoard = benchmark.newGame();
+    }
+  }
+
+  private GameBoard newGame() {
+    GameBoard gameBoard = new GameBoard(size, Math.min(size, 5));
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    return gameBoard;
+  }
+
+  /**
+   * Play the whole game on a new gameBoard.
+   * @param game The new gameBoard
+   * @return the gameBoard, so the work is not eliminated
+   */
+  @Benchmark
+  public GameBoard tryMove(NewGame game) {
+    GameBoard gameBoard = game.gameBoard;
+    for (Move move : moves) {
+      gameBoard.tryMove(move);
+    }
+    return gameBoard;
+  }
+
+  /**
+   * Check the board which the game leaves for a winner and a draw.
+   * @return the gameBoard, so the work is not eliminated
+   */
+  @Benchmark
+  public GameBoard updateState() {
+    played.updateState();
+    return played;
+  }
+
+  /**
+   * Run the benchmark.
+   * @param args Command line arguments
+   * @throws RunnerException if the benchmark fails
+   */
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(GameBoardBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import models.GameBoard;
+import models.GameState;
+import models.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.JsonEncoder;
+
+/**
+ * Compare encoding a gameBoard and the message of a move with Gson, as the server did,
+ * with the hand-written encoder. The gameBoard is encoded to UTF-8 bytes, since that is
+ * what a version of it keeps, and the encoder reads the version as the server does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonEncodingBenchmark {
+
+  @Param({"3", "30"})
+  public int size;
+
+  private final Gson gson = new Gson();
+
+  private GameBoard gameBoard;
+
+  private GameState state;
+
+  private final Message message = new Message(100);
+
+  /**
+   * Start a game and fill about half of the cells.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    gameBoard = new GameBoard(size, Math.min(size, 5));
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    char[][] boardState = new char[size][size];
+    for (int cell = 0; cell < size * size; cell += 2) {
+      boardState[cell / size][cell % size] = (cell % 4 == 0) ? 'X' : 'O';
+    }
+    gameBoard.setBoardState(boardState);
+    state = GameState.of(gameBoard);
+  }
+
+  @Benchmark
+  public byte[] gsonGameBoard() {
+    return gson.toJson(gameBoard).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] encoderGameBoard() {
+    return JsonEncoder.local().writeGameState(state).toByteArray();
+  }
+
+  @Benchmark
+  public String gsonMessage() {
+    return gson.toJson(message);
+  }
+
+  @Benchmark
+  public String encoderMessage() {
+    return JsonEncoder.toJson(message);
+  }
+
+  /**
+   * Run the benchmark.
+   * @param args Command line arguments
+   * @throws RunnerException if the benchmark fails
+   */
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(JsonEncodingBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -0,0 +1,285 @@
+package benchmark;
+
+import controllers.PlayGame;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+/**
+ * Drive many games at once against a server in this process, and report the throughput
+ * and the latency percentiles of /move, the latency from sending a move to a spectator
+ * receiving it on /gameboard, and every error. Each game has a spectator with the delta
+ * protocol, and plays rounds of the same drawn 3x3 game, one HTTP move after another.
+ * The games are stored in a journal in a temporary directory, unless tictactoe.storage
+ * says otherwise, so a run does not touch the database of the server.
+ * The options are words of the form name=value, e.g. "games=2000 rounds=3 maxP99Ms=50":
+ * games and rounds choose the load, and maxP99Ms, if it is given, makes the run fail when
+ * the p99 of /move is higher. A run also fails if any request fails. The clients share the
+ * process and its cores with the server, so the numbers compare runs on one machine.
+ * mvn -Pbench test-compile exec:exec -Dbench.main=benchmark.LoadDriver -Dbench.args="games=2000"
+ */
+public class LoadDriver {
+
+  private static final String SERVER = "http://localhost:8080";
+
+  // A 3x3 game which ends in a draw on its last move, as {row, column}.
+  private static final int[][] MOVES = {
+      {0, 0}, {1, 1}, {2, 2}, {0, 2}, {2, 0}, {1, 0}, {1, 2}, {2, 1}, {0, 1}};
+
+  private static final Pattern CODE = Pattern.compile("\"code\":(\\d+)");
+
+  private static final Pattern CELL = Pattern.compile("\"cell\":\\[(\\d+),(\\d+)\\]");
+
+  private final int games;
+
+  private final int rounds;
+
+  private final HttpClient http = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .build();
+
+  // The latencies in nanoseconds, in the order they were measured.
+  private final AtomicLongArray moveLatencies;
+
+  private final AtomicInteger moveCount = new AtomicInteger();
+
+  private final AtomicLongArray broadcastLatencies;
+
+  private final AtomicInteger broadcastCount = new AtomicInteger();
+
+  // When each game sent the move to each cell, at (game * 9 + row * 3 + column).
+  private final AtomicLongArray sent;
+
+  // The requests which failed, by HTTP status, move code or exception.
+  private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+  private LoadDriver(int games, int rounds) {
+    this.games = games;
+    this.rounds = rounds;
+    this.moveLatencies = new AtomicLongArray(games * rounds * MOVES.length);
+    this.broadcastLatencies = new AtomicLongArray(games * rounds * MOVES.length);
+    this.sent = new AtomicLongArray(games * 9);
+  }
+
+  /**
+   * Run the load.
+   * @param args The options, as name=value, in one or more arguments
+   * @throws Exception if the server or the clients cannot be started
+   */
+  public static void main(final String[] args) throws Exception {
+    Map<String, String> options = new TreeMap<>();
+    for (String arg : args) {
+      for (String option : arg.trim().split("\\s+")) {
+        int equals = option.indexOf('=');
+        if (equals > 0) {
+          options.put(option.substring(0, equals), option.substring(equals + 1));
+        }
+      }
+    }
+    int games = Integer.parseInt(options.getOrDefault("games", "1000"));
+    int rounds = Integer.parseInt(options.getOrDefault("rounds", "5"));
+    if (null == System.getProperty("tictactoe.storage")) {
+      System.setProperty("tictactoe.storage", "journal");
+      System.setProperty("tictactoe.journalDir",
+          Files.createTempDirectory("load-driver").toString());
+    }
+    PlayGame.main(null);
+    LoadDriver driver = new LoadDriver(games, rounds);
+    boolean passed;
+    try {
+      passed = driver.run(options.containsKey("maxP99Ms")
+          ? Double.parseDouble(options.get("maxP99Ms")) : Double.MAX_VALUE);
+    } finally {
+      PlayGame.stop();
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  // Connect the spectators, play every game, and report. The answer is whether it passed.
+  private boolean run(double maxP99Ms) throws Exception {
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      for (int g = 0; g < this.games; g++) {
+        String gameId = gameId(g);
+        send(HttpRequest.newBuilder(URI.create(SERVER + "/game/" + gameId + "/newgame")))
+            .join();
+        client.connect(new Spectator(g), URI.create("ws://localhost:8080/gameboard?gameId="
+            + gameId + "&role=spectator&protocol=delta")).get();
+      }
+      // The server attaches a session just after the handshake which the client waits for.
+      // A spectator which is not attached in time is an error, and its game is played anyway.
+      long attached = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      for (int g = 0; g < this.games; g++) {
+        while (PlayGame.getSubscriptions().getSubscribers(gameId(g)).isEmpty()
+            && System.nanoTime() < attached) {
+          Thread.sleep(1);
+        }
+        if (PlayGame.getSubscriptions().getSubscribers(gameId(g)).isEmpty()) {
+          error("spectator not attached");
+        }
+      }
+      long start = System.nanoTime();
+      List<CompletableFuture<Void>> played = new ArrayList<>(this.games);
+      for (int g = 0; g < this.games; g++) {
+        played.add(play(g, 0));
+      }
+      CompletableFuture.allOf(played.toArray(new CompletableFuture[0])).join();
+      long elapsed = System.nanoTime() - start;
+      // The last broadcasts may still be on their way.
+      long wait = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (this.broadcastCount.get() < this.moveCount.get() && System.nanoTime() < wait) {
+        Thread.sleep(10);
+      }
+      return report(elapsed, maxP99Ms);
+    } finally {
+      client.stop();
+    }
+  }
+
+  private static String gameId(int game) {
+    return "load-" + game;
+  }
+
+  // Play the rounds of one game from the given one, each after the one before it.
+  private CompletableFuture<Void> play(int game, int round) {
+    if (round == this.rounds) {
+      return CompletableFuture.completedFuture(null);
+    }
+    String path = SERVER + "/game/" + gameId(game);
+    CompletableFuture<?> ready = (0 == round) ? CompletableFuture.completedFuture(null)
+        : send(HttpRequest.newBuilder(URI.create(path + "/newgame")));
+    return ready
+        .thenCompose(r -> send(HttpRequest.newBuilder(URI.create(path + "/startgame"))
+            .POST(HttpRequest.BodyPublishers.ofString("type=X"))))
+        .thenCompose(r -> send(HttpRequest.newBuilder(URI.create(path + "/joingame"))))
+        .thenCompose(r -> move(game, 0))
+        .thenCompose(r -> play(game, round + 1));
+  }
+
+  // Make the moves of a round from the given one, each after the answer to the one before.
+  private CompletableFuture<Void> move(int game, int index) {
+    if (index == MOVES.length) {
+      return CompletableFuture.completedFuture(null);
+    }
+    int[] cell = MOVES[index];
+    HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(SERVER + "/game/"
+        + gameId(game) + "/move/" + (1 + index % 2)))
+        .POST(HttpRequest.BodyPublishers.ofString("x=" + cell[0] + "&y=" + cell[1]));
+    long start = System.nanoTime();
+    this.sent.set(game * 9 + cell[0] * 3 + cell[1], start);
+    return send(request).thenCompose(body -> {
+      this.moveLatencies.set(this.moveCount.getAndIncrement(), System.nanoTime() - start);
+      Matcher matcher = CODE.matcher(null == body ? "" : body);
+      if (null != body && matcher.find() && !"100".equals(matcher.group(1))) {
+        error("code " + matcher.group(1));
+      }
+      return move(game, index + 1);
+    });
+  }
+
+  // Send a request, counting it as an error if it fails. The answer is the body, or null.
+  private CompletableFuture<String> send(HttpRequest.Builder request) {
+    return this.http.sendAsync(request.timeout(Duration.ofSeconds(30)).build(),
+        HttpResponse.BodyHandlers.ofString()).handle((response, failure) -> {
+          if (null != failure) {
+            Throwable cause = (null == failure.getCause()) ? failure : failure.getCause();
+            error(cause.getClass().getSimpleName());
+            return null;
+          }
+          if (200 != response.statusCode()) {
+            error("http " + response.statusCode());
+            return null;
+          }
+          return response.body();
+        });
+  }
+
+  private void error(String kind) {
+    this.errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+  }
+
+  // Print the report, and answer whether the run passed.
+  private boolean report(long elapsed, double maxP99Ms) {
+    int moves = this.moveCount.get();
+    System.out.printf("%d games, %d moves in %.2f s: %.0f moves/s%n", this.games, moves,
+        elapsed / 1e9, moves * 1e9 / elapsed);
+    System.out.printf("%-10s %8s %9s %9s %9s %9s (ms)%n", "", "samples", "p50", "p99", "p999",
+        "max");
+    double p99 = print("/move", this.moveLatencies, moves);
+    print("broadcast", this.broadcastLatencies,
+        Math.min(this.broadcastCount.get(), this.broadcastLatencies.length()));
+    if (this.errors.isEmpty()) {
+      System.out.println("errors: none");
+    } else {
+      for (Map.Entry<String, LongAdder> error : new TreeMap<>(this.errors).entrySet()) {
+        System.out.println("error " + error.getKey() + ": " + error.getValue().sum());
+      }
+    }
+    if (p99 > maxP99Ms) {
+      System.out.printf("FAILED: the p99 of /move is over %.1f ms%n", maxP99Ms);
+    }
+    return this.errors.isEmpty() && p99 <= maxP99Ms;
+  }
+
+  // Print the percentiles of some latencies, and answer the p99 in milliseconds.
+  private static double print(String label, AtomicLongArray latencies, int count) {
+    long[] sorted = new long[count];
+    for (int k = 0; k < count; k++) {
+      sorted[k] = latencies.get(k);
+    }
+    Arrays.sort(sorted);
+    double[] percentiles = {0.5, 0.99, 0.999, 1};
+    double[] values = new double[percentiles.length];
+    for (int k = 0; k < percentiles.length && 0 != count; k++) {
+      int rank = (int) Math.ceil(percentiles[k] * count) - 1;
+      values[k] = sorted[Math.max(0, rank)] / 1e6;
+    }
+    System.out.printf("%-10s %8d %9.2f %9.2f %9.2f %9.2f%n", label, count, values[0],
+        values[1], values[2], values[3]);
+    return values[1];
+  }
+
+  // The spectator of one game, which times each move from its send to its delta.
+  // A move whose delta was replaced by a full board, for being late, is not timed.
+  private class Spectator extends WebSocketAdapter {
+
+    private final int game;
+
+    Spectator(int game) {
+      this.game = game;
+    }
+
+    @Override
+    public void onWebSocketText(String message) {
+      long now = System.nanoTime();
+      Matcher matcher = CELL.matcher(message);
+      if (matcher.find()) {
+        int cell = Integer.parseInt(matcher.group(1)) * 3 + Integer.parseInt(matcher.group(2));
+        int index = broadcastCount.getAndIncrement();
+        if (index < broadcastLatencies.length()) {
+          broadcastLatencies.set(index, now - sent.get(this.game * 9 + cell));
+        }
+      }
+    }
+  }
+}
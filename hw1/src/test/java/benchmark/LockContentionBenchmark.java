@@ -0,0 +1,174 @@
+package benchmark;
+
+import controllers.GameRegistry;
+import controllers.GameRoom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import models.GameBoard;
+import models.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the throughput of moves in unrelated games under one global lock,
+ * under the lock of each game, and as commands in the mailbox of each game,
+ * for a growing number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockContentionBenchmark {
+
+  // The moves of a game which ends in a draw: {row, column, playerId}.
+  private static final int[][] MOVES = {
+      {0, 0, 1}, {1, 0, 2}, {0, 1, 1}, {1, 1, 2}, {2, 0, 1},
+      {2, 1, 2}, {1, 2, 1}, {0, 2, 2}, {2, 2, 1}};
+
+  /**
+   * The games and the global lock shared by every thread.
+   */
+  @State(Scope.Benchmark)
+  public static class Server {
+    final ExecutorService workers =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    final GameRegistry registry = new GameRegistry(workers);
+    final Lock globalLock = new ReentrantLock();
+    final AtomicInteger nextGame = new AtomicInteger();
+
+    /**
+     * Stop the workers.
+     */
+    @TearDown
+    public void tearDown() {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * The game played by one thread.
+   */
+  @State(Scope.Thread)
+  public static class ThreadGame {
+    GameRoom room;
+    int next;
+
+    /**
+     * Register a game of this thread.
+     * @param server The shared state
+     */
+    @Setup
+    public void setUp(Server server) {
+      room = server.registry.getOrCreate("game" + server.nextGame.getAndIncrement());
+      reset();
+    }
+
+    void reset() {
+      GameBoard gameBoard = new GameBoard();
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      room.setGameBoard(gameBoard);
+      next = 0;
+    }
+  }
+
+  private static Message play(ThreadGame game) {
+    int[] move = MOVES[game.next++];
+    Message message = game.room.getGameBoard().move(move[0], move[1], move[2]);
+    if (MOVES.length == game.next) {
+      game.reset();
+    }
+    return message;
+  }
+
+  /**
+   * Play a move while holding the lock of the game.
+   * @param server The shared state
+   * @param game The game of this thread
+   * @return The message of the move
+   */
+  @Benchmark
+  public Message perGameLock(Server server, ThreadGame game) {
+    Lock lock = game.room.getLock();
+    lock.lock();
+    try {
+      return play(game);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Play a move while holding the single lock of the server.
+   * @param server The shared state
+   * @param game The game of this thread
+   * @return The message of the move
+   */
+  @Benchmark
+  public Message globalLock(Server server, ThreadGame game) {
+    server.globalLock.lock();
+    try {
+      return play(game);
+    } finally {
+      server.globalLock.unlock();
+    }
+  }
+
+  /**
+   * Play a move as a command of the game, and wait for it as a request does.
+   * @param server The shared state
+   * @param game The game of this thread
+   * @return The message of the move
+   */
+  @Benchmark
+  public Message actor(Server server, ThreadGame game) {
+    return game.room.submit(() -> play(game)).join();
+  }
+
+  /**
+   * Run the benchmark with 1, 2, 4, ... threads up to the number of cores.
+   * @param args Command line arguments
+   * @throws RunnerException if the benchmark fails
+   */
+  public static void main(final String[] args) throws RunnerException {
+    int cores = Runtime.getRuntime().availableProcessors();
+    StringBuilder report = new StringBuilder("threads  benchmark     ops/us\n");
+    for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+      Options options = new OptionsBuilder()
+          .include(LockContentionBenchmark.class.getSimpleName())
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .build();
+      for (RunResult result : new Runner(options).run()) {
+        String label = result.getParams().getBenchmark();
+        report.append(String.format("%7d  %-12s %8.2f%n", threads,
+            label.substring(label.lastIndexOf('.') + 1), result.getPrimaryResult().getScore()));
+      }
+      if (threads == cores) {
+        break;
+      }
+    }
+    System.out.println(report);
+  }
+}
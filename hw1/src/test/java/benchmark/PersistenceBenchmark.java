@@ -0,0 +1,184 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import models.GameBoard;
+import models.Move;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.GameStatements;
+import utils.MoveJournal;
+import utils.MyDatabase;
+
+/**
+ * Compare persisting a move with MyDatabase.addMove and updateGameBoard, which format
+ * and parse SQL on every call, with the prepared statements of GameStatements
+ * and with the records of MoveJournal.
+ * All of them commit every 1000 moves, as the write-behind writer does, and the
+ * PerMove variants commit every move, as a server which writes each request through would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceBenchmark {
+
+  private static final int COMMIT_EVERY = 1000;
+
+  private static final int GAMES = 64;
+
+  private final MyDatabase db = new MyDatabase();
+
+  private File file;
+
+  private Connection conn;
+
+  private GameStatements statements;
+
+  private File journalDir;
+
+  private MoveJournal journal;
+
+  private GameBoard gameBoard;
+
+  private Move move;
+
+  private int count;
+
+  /**
+   * Create an empty database in a temporary file.
+   * @throws IOException if the file cannot be created
+   * @throws SQLException if the statements cannot be prepared
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, SQLException {
+    file = File.createTempFile("persistence-benchmark", ".db");
+    conn = db.createConnection(file.getPath());
+    db.tryCreateTable(conn, "move");
+    db.tryCreateTable(conn, "gameBoard");
+    db.commit(conn);
+    statements = db.prepareStatements(conn);
+    journalDir = File.createTempFile("persistence-benchmark", "");
+    journalDir.delete();
+    journal = new MoveJournal(journalDir, 64 << 20, 0);
+    journal.open();
+    gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    move = new Move(gameBoard.getPlayer1(), 1, 1);
+  }
+
+  /**
+   * Close the connection and delete the database and the journal.
+   * @throws SQLException if the connection cannot be closed
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    db.commit(conn);
+    statements.close();
+    conn.close();
+    file.delete();
+    journal.close();
+    for (File segment : journalDir.listFiles()) {
+      segment.delete();
+    }
+    journalDir.delete();
+  }
+
+  private String nextGameId() {
+    if (0 == ++count % COMMIT_EVERY) {
+      db.commit(conn);
+      journal.commit();
+    }
+    return "game" + (count % GAMES);
+  }
+
+  private String nextGameIdPerMove() {
+    return "game" + (++count % GAMES);
+  }
+
+  /**
+   * Persist a move the way PlayGame did before the prepared statements.
+   */
+  @Benchmark
+  public void stringFormatted() {
+    String gameId = nextGameId();
+    db.addMove(conn, gameId, move);
+    db.updateGameBoard(conn, gameId, gameBoard);
+  }
+
+  /**
+   * Persist a move with the prepared statements and the upsert.
+   */
+  @Benchmark
+  public void prepared() {
+    String gameId = nextGameId();
+    statements.addMove(gameId, move);
+    statements.updateGameBoard(gameId, gameBoard);
+  }
+
+  /**
+   * Persist a move as two journal records.
+   */
+  @Benchmark
+  public void journal() {
+    String gameId = nextGameId();
+    journal.addMove(gameId, move);
+    journal.updateGameBoard(gameId, gameBoard);
+  }
+
+  /**
+   * Persist a move with the prepared statements, and commit it.
+   * @throws SQLException if the commit fails
+   */
+  @Benchmark
+  public void preparedPerMove() throws SQLException {
+    String gameId = nextGameIdPerMove();
+    statements.addMove(gameId, move);
+    statements.updateGameBoard(gameId, gameBoard);
+    conn.commit();
+  }
+
+  /**
+   * Persist a move as two journal records, and commit them with an fsync.
+   */
+  @Benchmark
+  public void journalPerMove() {
+    String gameId = nextGameIdPerMove();
+    journal.addMove(gameId, move);
+    journal.updateGameBoard(gameId, gameBoard);
+    journal.commit();
+  }
+
+  /**
+   * Run the benchmark.
+   * @param args Command line arguments
+   * @throws RunnerException if the benchmark fails
+   */
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(PersistenceBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -0,0 +1,130 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import models.GameBoard;
+import models.Move;
+import models.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import utils.GameStatements;
+import utils.MyDatabase;
+
+/**
+ * Compare recovering every game from its stored moves by replaying all of them
+ * with recovering from a snapshot taken before the last few moves, for histories
+ * of ten thousand to one million moves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+
+  private static final int GAMES = 1000;
+
+  private static final int SIZE = 15;
+
+  // The moves stored after the snapshot.
+  private static final int TAIL = 1000;
+
+  @Param({"10000", "100000", "1000000"})
+  public int moves;
+
+  @Param({"false", "true"})
+  public boolean snapshot;
+
+  private final MyDatabase db = new MyDatabase();
+
+  private File file;
+
+  private Connection conn;
+
+  /**
+   * Store the moves in a temporary database, and the snapshot if it is used.
+   * @throws IOException if the file cannot be created
+   * @throws SQLException if the statements cannot be prepared
+   */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, SQLException {
+    file = File.createTempFile("recovery-benchmark", ".db");
+    conn = db.createConnection(file.getPath());
+    db.tryCreateTable(conn, "move");
+    db.tryCreateTable(conn, "gameBoard");
+    db.commit(conn);
+    Player[] players = {new Player('X', 1), new Player('O', 2)};
+    try (GameStatements statements = db.prepareStatements(conn)) {
+      GameBoard gameBoard = new GameBoard(SIZE, 5);
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      for (int g = 0; g < GAMES; g++) {
+        statements.updateGameBoard("game" + g, gameBoard);
+      }
+      for (int n = 0; n < moves; n++) {
+        if (snapshot && moves - TAIL == n) {
+          db.commit(conn);
+          statements.snapshot(db.recoverAllGames(conn));
+        }
+        int cell = (n / GAMES) % (SIZE * SIZE);
+        statements.addMove("game" + (n % GAMES),
+            new Move(players[n / GAMES % 2], cell / SIZE, cell % SIZE));
+      }
+    }
+    db.commit(conn);
+  }
+
+  /**
+   * Close the connection and delete the database.
+   * @throws SQLException if the connection cannot be closed
+   */
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    conn.close();
+    file.delete();
+  }
+
+  /**
+   * Rebuild every game as the server does at startup.
+   * @return the gameBoards, so the work is not eliminated
+   */
+  @Benchmark
+  public Map<String, GameBoard> recoverAllGames() {
+    Map<String, GameBoard> gameBoards = db.recoverAllGames(conn);
+    db.commit(conn);
+    return gameBoards;
+  }
+
+  /**
+   * Run the benchmark.
+   * @param args Command line arguments
+   * @throws RunnerException if the benchmark fails
+   */
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(RecoveryBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+}
@@ -1,14 +1,27 @@
 package integrationtest;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import com.google.gson.Gson;
+import controllers.BinaryProtocol;
 import controllers.PlayGame;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import kong.unirest.HttpResponse;
 import kong.unirest.Unirest;
 import kong.unirest.json.JSONObject;
 import models.GameBoard;
+import models.Move;
 import models.Player;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -387,6 +400,355 @@ public class GameTest {
     assertEquals(0, gameBoard.getWinner());
   }
   
+  /**
+   * This is the test case that games with different ids do not affect each other.
+   */
+  @Test
+  public void multipleGamesTest() {
+    Unirest.get("http://localhost:8080/newgame").asString();
+    Unirest.post("http://localhost:8080/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/g1/newgame").asString();
+    Unirest.post("http://localhost:8080/game/g1/startgame").body("type=O").asString();
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/g1/joingame").asString();
+    assertEquals(200, response1.getStatus());
+    HttpResponse<String> response2 = Unirest.post("http://localhost:8080/game/g1/move/1")
+        .body("x=1&y=1").asString();
+    assertEquals(100, new JSONObject(response2.getBody()).get("code"));
+    
+    Gson gson = new Gson();
+    HttpResponse<String> res = Unirest.get("http://localhost:8080/game/g1/boardstatus").asString();
+    GameBoard gameBoard = gson.fromJson(res.getBody(), GameBoard.class);
+    assertEquals('O', gameBoard.getBoardState()[1][1]);
+    assertEquals(true, gameBoard.getGamestarted());
+    
+    // The default game is untouched by the other game.
+    res = Unirest.get("http://localhost:8080/boardstatus").asString();
+    gameBoard = gson.fromJson(res.getBody(), GameBoard.class);
+    assertEquals('X', gameBoard.getPlayer1().getType());
+    assertEquals(false, gameBoard.getGamestarted());
+    assertEquals('\u0000', gameBoard.getBoardState()[1][1]);
+  }
+  
+  /**
+   * This is the test case for the game routes with an unknown or invalid game id.
+   */
+  @Test
+  public void unknownGameTest() {
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/nosuchgame/boardstatus")
+        .asString();
+    assertEquals(404, response1.getStatus());
+    HttpResponse<String> response2 = Unirest.post("http://localhost:8080/game/nosuchgame/move/1")
+        .body("x=0&y=0").asString();
+    assertEquals(404, response2.getStatus());
+    HttpResponse<String> response3 = Unirest.get("http://localhost:8080/game/bad$id/newgame")
+        .asString();
+    assertEquals(400, response3.getStatus());
+  }
+  
+  /**
+   * This is the test case for creating a game with an invalid board size.
+   */
+  @Test
+  public void invalidBoardSizeTest() {
+    HttpResponse<String> response1 = Unirest
+        .get("http://localhost:8080/game/g3/newgame?size=3&winLength=4").asString();
+    assertEquals(400, response1.getStatus());
+    HttpResponse<String> response2 = Unirest.get("http://localhost:8080/game/g3/newgame?size=abc")
+        .asString();
+    assertEquals(400, response2.getStatus());
+  }
+  
+  /**
+   * This is the test case for the history of a game and the statistics of the server.
+   */
+  @Test
+  public void historyAndStatsTest() {
+    Unirest.get("http://localhost:8080/game/h1/newgame").asString();
+    Unirest.post("http://localhost:8080/game/h1/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/h1/joingame").asString();
+    Unirest.post("http://localhost:8080/game/h1/move/1").body("x=0&y=2").asString();
+    Unirest.post("http://localhost:8080/game/h1/move/2").body("x=1&y=2").asString();
+    PlayGame.getWriter().flush();
+    
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/h1/history").asString();
+    assertEquals(200, response1.getStatus());
+    Move[] moves = new Gson().fromJson(response1.getBody(), Move[].class);
+    assertEquals(2, moves.length);
+    assertEquals(2, moves[1].getPlayer().getId());
+    assertEquals(1, moves[1].getMoveX());
+    
+    HttpResponse<String> response2 = Unirest.get("http://localhost:8080/stats").asString();
+    JSONObject stats = new JSONObject(response2.getBody());
+    assertEquals(true, stats.getLong("storedMoves") >= 2);
+    assertEquals(true, stats.getLong("games") >= 2);
+  }
+  
+  /**
+   * This is the test case for the ETag of the board status, which only changes with the board.
+   */
+  @Test
+  public void boardStatusEtagTest() {
+    Unirest.get("http://localhost:8080/game/e1/newgame").asString();
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/e1/boardstatus")
+        .asString();
+    String etag = response1.getHeaders().getFirst("ETag");
+    assertEquals(200, response1.getStatus());
+    assertEquals(false, etag.isEmpty());
+    
+    HttpResponse<String> response2 = Unirest.get("http://localhost:8080/game/e1/boardstatus")
+        .header("If-None-Match", etag).asString();
+    assertEquals(304, response2.getStatus());
+    
+    Unirest.post("http://localhost:8080/game/e1/startgame").body("type=X").asString();
+    HttpResponse<String> response3 = Unirest.get("http://localhost:8080/game/e1/boardstatus")
+        .header("If-None-Match", etag).asString();
+    assertEquals(200, response3.getStatus());
+    assertEquals(false, etag.equals(response3.getHeaders().getFirst("ETag")));
+    GameBoard gameBoard = new Gson().fromJson(response3.getBody(), GameBoard.class);
+    assertEquals('X', gameBoard.getPlayer1().getType());
+  }
+  
+  /**
+   * This is the test case for the long poll on the board status.
+   */
+  @Test
+  public void longPollTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/lp1/newgame").asString();
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/lp1/boardstatus")
+        .asString();
+    long version = Long.parseLong(response1.getHeaders().getFirst("X-Board-Version"));
+    
+    HttpResponse<String> older = Unirest.get("http://localhost:8080/game/lp1/boardstatus")
+        .queryString("since", version - 1).asString();
+    assertEquals(200, older.getStatus());
+    
+    CompletableFuture<HttpResponse<String>> poll =
+        Unirest.get("http://localhost:8080/game/lp1/boardstatus")
+        .queryString("since", version).asStringAsync();
+    Thread.sleep(200);
+    assertEquals(false, poll.isDone());
+    Unirest.post("http://localhost:8080/game/lp1/startgame").body("type=X").asString();
+    HttpResponse<String> response2 = poll.get(5, TimeUnit.SECONDS);
+    assertEquals(200, response2.getStatus());
+    assertEquals(String.valueOf(version + 1), response2.getHeaders().getFirst("X-Board-Version"));
+    GameBoard gameBoard = new Gson().fromJson(response2.getBody(), GameBoard.class);
+    assertEquals('X', gameBoard.getPlayer1().getType());
+    
+    HttpResponse<String> invalid = Unirest.get("http://localhost:8080/game/lp1/boardstatus")
+        .queryString("since", "x").asString();
+    assertEquals(400, invalid.getStatus());
+  }
+  
+  /**
+   * This is the test case for the web socket, which sends a game only to its own subscribers.
+   */
+  @Test
+  public void subscriptionTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/ws1/newgame").asString();
+    Unirest.get("http://localhost:8080/game/ws2/newgame").asString();
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      BoardListener player = new BoardListener();
+      BoardListener spectator = new BoardListener();
+      BoardListener other = new BoardListener();
+      client.connect(player, URI.create("ws://localhost:8080/gameboard?gameId=ws1")).get();
+      client.connect(spectator,
+          URI.create("ws://localhost:8080/gameboard?gameId=ws1&role=spectator")).get();
+      client.connect(other, URI.create("ws://localhost:8080/gameboard?gameId=ws2")).get();
+      // The server attaches a session just after the handshake which the client waits for.
+      while (PlayGame.getSubscriptions().getSubscribers("ws1").size() < 2
+          || PlayGame.getSubscriptions().getSubscribers("ws2").isEmpty()) {
+        Thread.sleep(10);
+      }
+      
+      Unirest.post("http://localhost:8080/game/ws1/startgame").body("type=X").asString();
+      Unirest.get("http://localhost:8080/game/ws1/joingame").asString();
+      Unirest.post("http://localhost:8080/game/ws1/move/1").body("x=1&y=1").asString();
+      
+      GameBoard gameBoard = new Gson().fromJson(player.next(), GameBoard.class);
+      assertEquals(true, gameBoard.getGamestarted());
+      assertEquals('X', new Gson().fromJson(player.next(), GameBoard.class)
+          .getBoardState()[1][1]);
+      spectator.next();
+      assertEquals('X', new Gson().fromJson(spectator.next(), GameBoard.class)
+          .getBoardState()[1][1]);
+      assertEquals(null, other.messages.poll(200, TimeUnit.MILLISECONDS));
+    } finally {
+      client.stop();
+    }
+  }
+  
+  /**
+   * This is the test case for the delta protocol of the web socket.
+   */
+  @Test
+  public void deltaProtocolTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/d1/newgame").asString();
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      BoardListener listener = new BoardListener();
+      Session session = client.connect(listener,
+          URI.create("ws://localhost:8080/gameboard?gameId=d1&protocol=delta")).get();
+      JSONObject full = new JSONObject(listener.next());
+      assertEquals(false, full.getJSONObject("board").getBoolean("gameStarted"));
+      
+      Unirest.post("http://localhost:8080/game/d1/startgame").body("type=O").asString();
+      Unirest.get("http://localhost:8080/game/d1/joingame").asString();
+      Unirest.post("http://localhost:8080/game/d1/move/1").body("x=2&y=0").asString();
+      JSONObject joined = new JSONObject(listener.next());
+      assertEquals(true, joined.getJSONObject("board").getBoolean("gameStarted"));
+      JSONObject delta = new JSONObject(listener.next());
+      assertEquals(joined.getLong("version") + 1, delta.getLong("version"));
+      assertEquals(2, delta.getJSONArray("cell").getInt(0));
+      assertEquals("O", delta.getString("mark"));
+      assertEquals(2, delta.getInt("turn"));
+      
+      session.getRemote().sendString("resync");
+      JSONObject resync = new JSONObject(listener.next());
+      assertEquals(delta.getLong("version"), resync.getLong("version"));
+      assertEquals("O", resync.getJSONObject("board").getJSONArray("boardState")
+          .getJSONArray(2).getString(0));
+    } finally {
+      client.stop();
+    }
+  }
+  
+  /**
+   * This is the test case for moves which are sent on the web socket.
+   */
+  @Test
+  public void webSocketMoveTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/w1/newgame").asString();
+    Unirest.post("http://localhost:8080/game/w1/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/w1/joingame").asString();
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      BoardListener listener = new BoardListener();
+      Session session = client.connect(listener,
+          URI.create("ws://localhost:8080/gameboard?gameId=w1")).get();
+      while (PlayGame.getSubscriptions().getSubscribers("w1").isEmpty()) {
+        Thread.sleep(10);
+      }
+      
+      session.getRemote().sendString("{\"type\":\"move\",\"playerId\":1,\"x\":0,\"y\":2}");
+      JSONObject board = new JSONObject(listener.next());
+      assertEquals("X", board.getJSONArray("boardState").getJSONArray(0).getString(2));
+      JSONObject reply = new JSONObject(listener.next());
+      assertEquals(true, reply.getBoolean("moveValidity"));
+      assertEquals(100, reply.getInt("code"));
+      
+      // The refused move changes no board, so only its reply comes back.
+      session.getRemote().sendString("{\"type\":\"move\",\"playerId\":1,\"x\":1,\"y\":1}");
+      reply = new JSONObject(listener.next());
+      assertEquals(false, reply.getBoolean("moveValidity"));
+      assertEquals(302, reply.getInt("code"));
+    } finally {
+      client.stop();
+    }
+  }
+  
+  /**
+   * This is the test case for a spectator, which cannot move on its web socket.
+   */
+  @Test
+  public void webSocketSpectatorMoveTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/w2/newgame").asString();
+    Unirest.post("http://localhost:8080/game/w2/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/w2/joingame").asString();
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      BoardListener listener = new BoardListener();
+      Session session = client.connect(listener,
+          URI.create("ws://localhost:8080/gameboard?gameId=w2&role=spectator")).get();
+      while (PlayGame.getSubscriptions().getSubscribers("w2").isEmpty()) {
+        Thread.sleep(10);
+      }
+      
+      session.getRemote().sendString("{\"type\":\"move\",\"playerId\":1,\"x\":0,\"y\":2}");
+      JSONObject reply = new JSONObject(listener.next());
+      assertEquals(false, reply.getBoolean("moveValidity"));
+      assertEquals(303, reply.getInt("code"));
+      HttpResponse<String> response = Unirest.get("http://localhost:8080/game/w2/boardstatus")
+          .asString();
+      GameBoard gameBoard = new Gson().fromJson(response.getBody(), GameBoard.class);
+      assertEquals(0, gameBoard.getBoardState()[0][2]);
+      assertEquals(1, gameBoard.getTurn());
+    } finally {
+      client.stop();
+    }
+  }
+  
+  /**
+   * This is the test case for the binary protocol of the web socket.
+   */
+  @Test
+  public void binaryProtocolTest() throws Exception {
+    Unirest.get("http://localhost:8080/game/b1/newgame").asString();
+    Unirest.post("http://localhost:8080/game/b1/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/b1/joingame").asString();
+    WebSocketClient client = new WebSocketClient();
+    client.start();
+    try {
+      BoardListener listener = new BoardListener();
+      Session session = client.connect(listener,
+          URI.create("ws://localhost:8080/gameboard?gameId=b1&protocol=binary")).get();
+      byte[] full = listener.nextFrame();
+      assertEquals(15, full.length);
+      GameBoard gameBoard = BinaryProtocol.decodeBoard(ByteBuffer.wrap(full));
+      assertEquals(true, gameBoard.getGamestarted());
+      
+      session.getRemote().sendBytes(ByteBuffer.wrap(BinaryProtocol.encodePlay(1, 0, 0)));
+      byte[] move = listener.nextFrame();
+      assertEquals(BinaryProtocol.MOVE, move[0]);
+      assertEquals('X', move[7]);
+      assertArrayEquals(new byte[] {BinaryProtocol.RESULT, 0, 100}, listener.nextFrame());
+      
+      // It is player 2's turn, so this move is refused.
+      session.getRemote().sendBytes(ByteBuffer.wrap(BinaryProtocol.encodePlay(1, 1, 1)));
+      byte[] result = listener.nextFrame();
+      assertEquals(BinaryProtocol.RESULT, result[0]);
+      assertEquals(false, 100 == ByteBuffer.wrap(result, 1, 2).getShort());
+      
+      session.getRemote().sendBytes(ByteBuffer.wrap(new byte[] {BinaryProtocol.RESYNC}));
+      gameBoard = BinaryProtocol.decodeBoard(ByteBuffer.wrap(listener.nextFrame()));
+      assertEquals('X', gameBoard.getBoardState()[0][0]);
+      assertEquals(2, gameBoard.getTurn());
+    } finally {
+      client.stop();
+    }
+  }
+  
+  /**
+   * Collect the messages which a web socket client receives.
+   */
+  public static class BoardListener extends WebSocketAdapter {
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    
+    private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+    
+    @Override
+    public void onWebSocketText(String message) {
+      this.messages.add(message);
+    }
+    
+    @Override
+    public void onWebSocketBinary(byte[] payload, int offset, int len) {
+      this.frames.add(Arrays.copyOfRange(payload, offset, offset + len));
+    }
+    
+    String next() throws InterruptedException {
+      return this.messages.poll(5, TimeUnit.SECONDS);
+    }
+    
+    byte[] nextFrame() throws InterruptedException {
+      return this.frames.poll(5, TimeUnit.SECONDS);
+    }
+  }
+  
   /**
   * This will run every time after a test has finished.
   */
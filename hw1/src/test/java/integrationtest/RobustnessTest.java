@@ -4,17 +4,17 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import com.google.gson.Gson;
 import controllers.PlayGame;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.Statement;
-import java.util.concurrent.locks.Lock;
 import kong.unirest.HttpResponse;
 import kong.unirest.Unirest;
 import kong.unirest.json.JSONObject;
 import models.GameBoard;
+import models.Move;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import utils.ConnectionPool;
+import utils.MyDatabase;
+import utils.WriteBehindWriter;
 
 
 
@@ -38,37 +38,28 @@ public class RobustnessTest {
    */
   @Test
   public void test1() {
-    Connection conn = PlayGame.getConnection();
-    Lock lock = PlayGame.getLock();
+    // The writer owns the writer connection, so the records go through it, and are read
+    // back on a reader connection.
+    WriteBehindWriter writer = PlayGame.getWriter();
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    writer.updateGameBoard(MyDatabase.DEFAULT_GAME_ID, gameBoard);
+    writer.addMove(MyDatabase.DEFAULT_GAME_ID, new Move(gameBoard.getPlayer1(), 0, 0));
+    writer.flush();
+    ConnectionPool pool = PlayGame.getPool();
+    assertEquals(true, pool.read(c -> PlayGame.getDb().recoverAllGames(c))
+        .containsKey(MyDatabase.DEFAULT_GAME_ID));
     
-    boolean flag = true;
-    try {
-      lock.lock();
-      Statement stat = conn.createStatement();
-      stat.executeUpdate("insert into move values(1, 'X', 0, 0);");
-      stat.close();
-      conn.commit();
-      lock.unlock();
-      
-      HttpResponse<String> response = Unirest.get("http://localhost:8080/newgame").asString();
-      int restStatus = response.getStatus();
-      // Check assert statement (New Game has started)
-      assertEquals(restStatus, 200);
-      
-      lock.lock();
-      stat = conn.createStatement();
-      ResultSet rs = stat.executeQuery("select count(*) from move;");
-      rs.next();
-      assertEquals(rs.getInt(1), 0);
-      rs = stat.executeQuery("select count(*) from gameBoard;");
-      rs.next();
-      assertEquals(rs.getInt(1), 0);
-      conn.commit();
-      lock.unlock();
-    } catch (Exception e) {
-      flag = false;
-    }
-    assertEquals(flag, true);
+    HttpResponse<String> response = Unirest.get("http://localhost:8080/newgame").asString();
+    // Check assert statement (New Game has started)
+    assertEquals(200, response.getStatus());
+    
+    assertEquals(0, pool.read(c -> PlayGame.getDb().getMoves(c, MyDatabase.DEFAULT_GAME_ID))
+        .size());
+    // Only the empty board of the new game is left.
+    assertEquals(false, pool.read(c -> PlayGame.getDb().recoverAllGames(c))
+        .get(MyDatabase.DEFAULT_GAME_ID).getGamestarted());
   }
   
   /**
@@ -275,6 +266,75 @@ public class RobustnessTest {
     //result is not stored.
   }
   
+  /**
+   * If the application crashes while several games are in progress, 
+   * every game must be recovered with its own state.
+   */
+  @Test
+  public void test10() {
+    Unirest.get("http://localhost:8080/newgame").asString();
+    Unirest.post("http://localhost:8080/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/g2/newgame").asString();
+    Unirest.post("http://localhost:8080/game/g2/startgame").body("type=O").asString();
+    Unirest.get("http://localhost:8080/game/g2/joingame").asString();
+    Unirest.post("http://localhost:8080/game/g2/move/1").body("x=2&y=2").asString();
+    PlayGame.stop();
+    //check if the state is recovered.
+    PlayGame.main(null);
+    Gson gson = new Gson();
+    HttpResponse<String> response1 = Unirest.get("http://localhost:8080/game/g2/boardstatus")
+        .asString();
+    GameBoard gameBoard = gson.fromJson(response1.getBody(), GameBoard.class);
+    assertEquals('O', gameBoard.getBoardState()[2][2]);
+    assertEquals('X', gameBoard.getPlayer2().getType());
+    HttpResponse<String> response2 = Unirest.get("http://localhost:8080/boardstatus").asString();
+    gameBoard = gson.fromJson(response2.getBody(), GameBoard.class);
+    assertEquals('X', gameBoard.getPlayer1().getType());
+    assertEquals(null, gameBoard.getPlayer2());
+  }
+  
+  /**
+   * If the application crashes during a game on a larger board, 
+   * the game must be recovered with its size and win length.
+   */
+  @Test
+  public void test11() {
+    Unirest.get("http://localhost:8080/game/big/newgame?size=15&winLength=5").asString();
+    Unirest.post("http://localhost:8080/game/big/startgame").body("type=X").asString();
+    Unirest.get("http://localhost:8080/game/big/joingame").asString();
+    Unirest.post("http://localhost:8080/game/big/move/1").body("x=14&y=13").asString();
+    PlayGame.stop();
+    //check if the state is recovered.
+    PlayGame.main(null);
+    HttpResponse<String> response = Unirest.get("http://localhost:8080/game/big/boardstatus")
+        .asString();
+    GameBoard gameBoard = new Gson().fromJson(response.getBody(), GameBoard.class);
+    assertEquals(15, gameBoard.getSize());
+    assertEquals(5, gameBoard.getWinLength());
+    assertEquals(15, gameBoard.getBoardState().length);
+    assertEquals('X', gameBoard.getBoardState()[14][13]);
+    assertEquals(2, gameBoard.getTurn());
+  }
+  
+  /**
+   * If the application crashes after a game on a larger board was created, but before
+   * it started, the game must be recovered with its size and win length.
+   */
+  @Test
+  public void test12() {
+    Unirest.get("http://localhost:8080/game/x/newgame?size=15&winLength=5").asString();
+    PlayGame.stop();
+    //check if the state is recovered.
+    PlayGame.main(null);
+    HttpResponse<String> response = Unirest.get("http://localhost:8080/game/x/boardstatus")
+        .asString();
+    assertEquals(200, response.getStatus());
+    GameBoard gameBoard = new Gson().fromJson(response.getBody(), GameBoard.class);
+    assertEquals(15, gameBoard.getSize());
+    assertEquals(5, gameBoard.getWinLength());
+    assertEquals(false, gameBoard.getGamestarted());
+  }
+  
   /**
    * This method runs after each test.
    */
@@ -0,0 +1,58 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import controllers.BinaryProtocol;
+import java.nio.ByteBuffer;
+import models.GameBoard;
+import models.GameState;
+import models.Message;
+import models.Move;
+import org.junit.jupiter.api.Test;
+
+public class BinaryProtocolTest {
+
+  @Test
+  public void boardRoundTripTest() {
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('O');
+    gameBoard.joinGame();
+    gameBoard.move(0, 0, 1);
+    gameBoard.move(2, 1, 2);
+    byte[] frame = BinaryProtocol.encodeBoard(7, GameState.of(gameBoard));
+    assertEquals(15, frame.length);
+    assertEquals(BinaryProtocol.BOARD, frame[0]);
+
+    GameBoard decoded = BinaryProtocol.decodeBoard(ByteBuffer.wrap(frame));
+    assertEquals(3, decoded.getSize());
+    assertEquals(true, decoded.getGamestarted());
+    assertEquals(1, decoded.getTurn());
+    assertEquals('O', decoded.getPlayer1().getType());
+    assertEquals('X', decoded.getPlayer2().getType());
+    assertArrayEquals(gameBoard.getBoardState(), decoded.getBoardState());
+  }
+
+  @Test
+  public void moveAndResultTest() {
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    Message message = gameBoard.move(1, 2, 1);
+    byte[] frame = BinaryProtocol.encodeMove(3, new Move(gameBoard.getPlayer1(), 1, 2),
+        GameState.of(gameBoard));
+    assertArrayEquals(new byte[] {BinaryProtocol.MOVE, 0, 0, 0, 3, 1, 2, 'X', 2, 0, 1}, frame);
+    assertArrayEquals(new byte[] {BinaryProtocol.RESULT, 0, 100},
+        BinaryProtocol.encodeResult(message));
+  }
+
+  @Test
+  public void playTest() {
+    int[] play = BinaryProtocol.decodePlay(ByteBuffer.wrap(BinaryProtocol.encodePlay(2, -1, 0)));
+    assertArrayEquals(new int[] {2, -1, 0}, play);
+    assertNull(BinaryProtocol.decodePlay(ByteBuffer.wrap(new byte[] {BinaryProtocol.PLAY, 1})));
+  }
+}
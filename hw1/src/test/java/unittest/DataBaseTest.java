@@ -1,7 +1,18 @@
 package unittest;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import com.google.gson.Gson;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
 import models.GameBoard;
 import models.Move;
 import models.Player;
@@ -9,7 +20,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import utils.ConnectionPool;
+import utils.GameStatements;
+import utils.MoveJournal;
 import utils.MyDatabase;
+import utils.SqliteGameStore;
+import utils.WriteBehindWriter;
 
 
 
@@ -60,4 +76,335 @@ public class DataBaseTest {
     System.out.println(gson.toJson(gameBoard));
   }
   
+  @Test
+  public void writeBehindGroupCommitTest() throws IOException {
+    File file = File.createTempFile("write-behind", ".db");
+    ConnectionPool pool = new ConnectionPool(db, file.getPath(), 1, 1000);
+    db.tryCreateTable(pool.getWriter(), "move");
+    db.tryCreateTable(pool.getWriter(), "gameBoard");
+    db.commit(pool.getWriter());
+    SqliteGameStore store = new SqliteGameStore(db, pool);
+    WriteBehindWriter writer = new WriteBehindWriter(store, 1000, 1024, 1000);
+    writer.recover();
+    writer.start();
+    for (int g = 0; g < 10; g++) {
+      GameBoard gameBoard = new GameBoard();
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      writer.updateGameBoard("wb" + g, gameBoard);
+      writer.addMove("wb" + g, new Move(gameBoard.getPlayer1(), g % 3, 0));
+      writer.addMove("wb" + g, new Move(gameBoard.getPlayer2(), g % 3, 1));
+    }
+    writer.flush();
+    // Every write of every game is committed in the same transaction.
+    assertEquals(1, writer.getCommitCount());
+    assertEquals(30, writer.getWriteCount());
+    writer.close();
+    
+    Map<String, GameBoard> gameBoards = store.recoverAllGames();
+    assertEquals('X', gameBoards.get("wb4").getBoardState()[1][0]);
+    assertEquals('O', gameBoards.get("wb4").getBoardState()[1][1]);
+    assertEquals(true, gameBoards.get("wb9").getGamestarted());
+    pool.close();
+    file.delete();
+  }
+  
+  @Test
+  public void preparedStatementsUpsertTest() throws SQLException {
+    GameBoard gameBoard = new GameBoard(15, 5);
+    gameBoard.init();
+    gameBoard.startGame('O');
+    try (GameStatements statements = db.prepareStatements(conn)) {
+      statements.updateGameBoard("ps", gameBoard);
+      gameBoard.joinGame();
+      statements.updateGameBoard("ps", gameBoard);
+      statements.addMove("ps", new Move(gameBoard.getPlayer1(), 7, 7));
+    }
+    db.commit(conn);
+    try (Statement stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("select count(*) from gameBoard where gameId = 'ps';")) {
+      rs.next();
+      assertEquals(1, rs.getInt(1));
+    }
+    db.commit(conn);
+    GameBoard recovered = db.recoverFromDatabase(conn, "ps");
+    db.commit(conn);
+    assertEquals(15, recovered.getSize());
+    assertEquals('X', recovered.getPlayer2().getType());
+    assertEquals('O', recovered.getBoardState()[7][7]);
+    
+    try (GameStatements statements = db.prepareStatements(conn)) {
+      statements.cleanGame("ps");
+    }
+    db.commit(conn);
+    assertEquals(false, db.recoverAllGames(conn).containsKey("ps"));
+    db.commit(conn);
+  }
+  
+  @Test
+  public void snapshotRecoveryTest() throws IOException, SQLException {
+    File file = File.createTempFile("snapshot", ".db");
+    ConnectionPool pool = new ConnectionPool(db, file.getPath(), 1, 1000);
+    db.tryCreateTable(pool.getWriter(), "move");
+    db.tryCreateTable(pool.getWriter(), "gameBoard");
+    db.commit(pool.getWriter());
+    SqliteGameStore store = new SqliteGameStore(db, pool);
+    // A snapshot after every third write.
+    WriteBehindWriter writer = new WriteBehindWriter(store, 1000, 1024, 3);
+    writer.recover();
+    writer.start();
+    GameBoard gameBoard = new GameBoard(4, 3);
+    gameBoard.init();
+    gameBoard.startGame('O');
+    gameBoard.joinGame();
+    writer.updateGameBoard("snap", gameBoard);
+    writer.addMove("snap", new Move(gameBoard.getPlayer1(), 0, 0));
+    writer.addMove("snap", new Move(gameBoard.getPlayer2(), 1, 1));
+    writer.flush();
+    assertEquals(1, writer.getSnapshotCount());
+    writer.addMove("snap", new Move(gameBoard.getPlayer1(), 2, 2));
+    writer.close();
+    assertEquals(2, writer.getSnapshotCount());
+    
+    // A move after the snapshot is replayed onto it, while the moves before it are not.
+    try (GameStatements statements = db.prepareStatements(pool.getWriter());
+        Statement stat = pool.getWriter().createStatement()) {
+      statements.addMove("snap", new Move(gameBoard.getPlayer2(), 3, 3));
+      stat.executeUpdate("delete from move where rowid <= 3;");
+    }
+    db.commit(pool.getWriter());
+    Map<String, GameBoard> gameBoards = writer.recover();
+    char[][] boardState = gameBoards.get("snap").getBoardState();
+    assertEquals('O', boardState[0][0]);
+    assertEquals('X', boardState[1][1]);
+    assertEquals('O', boardState[2][2]);
+    assertEquals('X', boardState[3][3]);
+    assertEquals(4, gameBoards.get("snap").getSize());
+    pool.close();
+    file.delete();
+  }
+  
+  @Test
+  public void writeBehindRollbackTest() throws IOException, SQLException {
+    File file = File.createTempFile("rollback", ".db");
+    ConnectionPool pool = new ConnectionPool(db, file.getPath(), 1, 1000);
+    db.tryCreateTable(pool.getWriter(), "move");
+    db.tryCreateTable(pool.getWriter(), "gameBoard");
+    // A move in the last column is refused, so its statement fails.
+    try (Statement stat = pool.getWriter().createStatement()) {
+      stat.executeUpdate("create trigger refuseMove before insert on move when new.x = 2 "
+          + "begin select raise(abort, 'refused'); end;");
+    }
+    db.commit(pool.getWriter());
+    SqliteGameStore store = new SqliteGameStore(db, pool);
+    WriteBehindWriter writer = new WriteBehindWriter(store, 1000, 1024, 1000);
+    writer.recover();
+    writer.start();
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    writer.updateGameBoard("rb1", gameBoard);
+    writer.flush();
+    writer.updateGameBoard("rb2", gameBoard);
+    writer.addMove("rb1", new Move(gameBoard.getPlayer1(), 0, 0));
+    writer.addMove("rb1", new Move(gameBoard.getPlayer2(), 2, 0));
+    assertThrows(IllegalStateException.class, writer::flush);
+    assertEquals(1, writer.getFailureCount());
+    writer.close();
+    
+    // Nothing of the failed batch is committed.
+    assertEquals(0L, (long) pool.read(db::countMoves));
+    Map<String, GameBoard> gameBoards = store.recoverAllGames();
+    assertTrue(gameBoards.containsKey("rb1"));
+    assertEquals(false, gameBoards.containsKey("rb2"));
+    pool.close();
+    file.delete();
+  }
+  
+  @Test
+  public void walCheckpointTest() throws IOException {
+    File file = File.createTempFile("checkpoint", ".db");
+    try (ConnectionPool pool = new ConnectionPool(db, file.getPath(), 2, 1)) {
+      Connection writer = pool.getWriter();
+      db.tryCreateTable(writer, "move");
+      db.tryCreateTable(writer, "gameBoard");
+      db.addMove(writer, "wal", new Move(new Player('X', 1), 1, 2));
+      db.commit(writer);
+      
+      // A reader sees the commit while the WAL has not been checkpointed.
+      File walFile = new File(file.getPath() + "-wal");
+      assertTrue(walFile.length() > 0);
+      assertEquals(2, pool.read(c -> db.getMoves(c, "wal")).get(0).getMoveY());
+      
+      assertTrue(pool.checkpointIfNeeded());
+      assertEquals(1, pool.getCheckpointCount());
+      assertEquals(0, walFile.length());
+      assertEquals(1L, (long) pool.read(db::countMoves));
+    }
+    file.delete();
+  }
+  
+  private static File createJournalDir() throws IOException {
+    File dir = File.createTempFile("journal", "");
+    dir.delete();
+    dir.mkdirs();
+    return dir;
+  }
+  
+  private static void deleteJournalDir(File dir) {
+    for (File segment : dir.listFiles()) {
+      segment.delete();
+    }
+    dir.delete();
+  }
+  
+  @Test
+  public void journalRecoveryTest() throws IOException {
+    File dir = createJournalDir();
+    // Ten records per segment, so the games span several segments.
+    MoveJournal journal = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0);
+    assertEquals(0, journal.recoverAllGames().size());
+    for (int g = 0; g < 5; g++) {
+      GameBoard gameBoard = new GameBoard(4, 3);
+      gameBoard.init();
+      gameBoard.startGame('O');
+      gameBoard.joinGame();
+      journal.updateGameBoard("j" + g, gameBoard);
+      journal.addMove("j" + g, new Move(gameBoard.getPlayer1(), g % 4, 3));
+      journal.addMove("j" + g, new Move(gameBoard.getPlayer2(), 3, g % 4));
+      journal.commit();
+    }
+    journal.cleanGame("j0");
+    journal.close();
+    assertTrue(dir.listFiles().length > 1);
+    
+    Map<String, GameBoard> gameBoards = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0)
+        .recoverAllGames();
+    assertEquals(4, gameBoards.size());
+    assertEquals(false, gameBoards.containsKey("j0"));
+    assertEquals(4, gameBoards.get("j2").getSize());
+    assertEquals('O', gameBoards.get("j2").getPlayer1().getType());
+    assertEquals('O', gameBoards.get("j2").getBoardState()[2][3]);
+    assertEquals('X', gameBoards.get("j2").getBoardState()[3][2]);
+    deleteJournalDir(dir);
+  }
+  
+  @Test
+  public void journalTornRecordTest() throws IOException {
+    File dir = createJournalDir();
+    MoveJournal journal = new MoveJournal(dir, 1 << 16, 0);
+    journal.open();
+    Player player = new Player('X', 1);
+    journal.addMove("torn", new Move(player, 0, 0));
+    journal.addMove("torn", new Move(player, 1, 1));
+    journal.close();
+    
+    // Tear the second record, as a crash in the middle of writing it would.
+    File segment = dir.listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(MoveJournal.RECORD_BYTES + 40);
+      file.write('?');
+    }
+    journal = new MoveJournal(dir, 1 << 16, 0);
+    char[][] boardState = journal.recoverAllGames().get("torn").getBoardState();
+    assertEquals('X', boardState[0][0]);
+    assertEquals(0, boardState[1][1]);
+    
+    // The next record replaces the torn one.
+    journal.addMove("torn", new Move(player, 2, 2));
+    journal.close();
+    boardState = new MoveJournal(dir, 1 << 16, 0).recoverAllGames().get("torn").getBoardState();
+    assertEquals('X', boardState[0][0]);
+    assertEquals(0, boardState[1][1]);
+    assertEquals('X', boardState[2][2]);
+    deleteJournalDir(dir);
+  }
+  
+  @Test
+  public void journalSnapshotTest() throws IOException {
+    File dir = createJournalDir();
+    MoveJournal journal = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0);
+    WriteBehindWriter writer = new WriteBehindWriter(journal, 1000, 1024, 1000);
+    writer.recover();
+    writer.start();
+    for (int g = 0; g < 5; g++) {
+      GameBoard gameBoard = new GameBoard(4, 3);
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      writer.updateGameBoard("s" + g, gameBoard);
+      writer.addMove("s" + g, new Move(gameBoard.getPlayer1(), g % 4, 0));
+      writer.addMove("s" + g, new Move(gameBoard.getPlayer2(), g % 4, 1));
+    }
+    // Stopping the writer takes a snapshot, after which only the last segment is kept.
+    writer.close();
+    assertEquals(1, writer.getSnapshotCount());
+    assertEquals(2, dir.listFiles().length);
+    
+    journal = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0);
+    journal.open();
+    journal.addMove("s3", new Move(new Player('X', 1), 3, 3));
+    journal.close();
+    Map<String, GameBoard> gameBoards = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0)
+        .recoverAllGames();
+    assertEquals(5, gameBoards.size());
+    assertEquals('X', gameBoards.get("s3").getBoardState()[3][0]);
+    assertEquals('O', gameBoards.get("s3").getBoardState()[3][1]);
+    assertEquals('X', gameBoards.get("s3").getBoardState()[3][3]);
+    deleteJournalDir(dir);
+  }
+  
+  @Test
+  public void journalTimedForceTest() throws IOException, InterruptedException {
+    File dir = createJournalDir();
+    MoveJournal journal = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 50);
+    journal.open();
+    journal.addMove("t1", new Move(new Player('X', 1), 0, 0));
+    journal.commit();
+    // No commit follows, so the timer forces the record within about one interval.
+    for (int n = 0; n < 100 && 0 == journal.getForceCount(); n++) {
+      Thread.sleep(10);
+    }
+    assertTrue(journal.getForceCount() > 0);
+    journal.close();
+    deleteJournalDir(dir);
+  }
+  
+  @Test
+  public void writeBehindFailureTest() throws IOException {
+    File dir = createJournalDir();
+    MoveJournal journal = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0);
+    // A snapshot after every write.
+    WriteBehindWriter writer = new WriteBehindWriter(journal, 1000, 1024, 1);
+    writer.recover();
+    writer.start();
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    writer.updateGameBoard("f1", gameBoard);
+    writer.flush();
+    assertEquals(1, writer.getSnapshotCount());
+    // A game id which does not fit in a record fails its whole batch.
+    writer.updateGameBoard("f2", gameBoard);
+    writer.updateGameBoard("f".repeat(MoveJournal.MAX_GAME_ID_LENGTH + 1), gameBoard);
+    assertThrows(IllegalStateException.class, writer::flush);
+    assertEquals(1, writer.getFailureCount());
+    assertEquals(false, writer.isSnapshotPaused());
+    // The writer carries on with the next batch, and snapshots the games it has reloaded.
+    writer.addMove("f1", new Move(gameBoard.getPlayer1(), 0, 0));
+    writer.flush();
+    assertEquals(2, writer.getCommitCount());
+    assertEquals(2, writer.getSnapshotCount());
+    writer.close();
+    
+    Map<String, GameBoard> gameBoards = new MoveJournal(dir, 10 * MoveJournal.RECORD_BYTES, 0)
+        .recoverAllGames();
+    assertEquals(1, gameBoards.size());
+    assertEquals('X', gameBoards.get("f1").getBoardState()[0][0]);
+    deleteJournalDir(dir);
+  }
+  
 }
@@ -0,0 +1,123 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+import models.Analysis;
+import models.GameAnalyzer;
+import models.GameBoard;
+import models.GameState;
+import models.PerfectPlay;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GameAnalyzerTest {
+  private ForkJoinPool pool;
+
+  private GameAnalyzer analyzer;
+
+  @BeforeEach
+  public void startPool() {
+    pool = new ForkJoinPool(4);
+    analyzer = new GameAnalyzer(pool, 1 << 20);
+  }
+
+  @AfterEach
+  public void stopPool() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void emptyBoardIsDrawTest() {
+    Analysis analysis = analyze(startedGame(3, 3), 60000);
+    assertEquals(0, analysis.getEvaluation());
+    assertEquals(9, analysis.getDepth());
+    assertEquals(9, analysis.getPrincipalVariation().length);
+    // Fewer than the 5478 positions which a game from X can reach, thanks to the symmetries.
+    assertTrue(analyzer.getTableSize() < 5478);
+  }
+
+  @Test
+  public void winInOneTest() {
+    GameBoard gameBoard = startedGame(3, 3);
+    gameBoard.setBoardState(new char[][] {{'X', 'X', 0}, {'O', 'O', 0}, {0, 0, 0}});
+    Analysis analysis = analyze(gameBoard, 60000);
+    assertEquals(GameAnalyzer.WIN - 1, analysis.getEvaluation());
+    assertEquals(0, analysis.getPrincipalVariation()[0][0]);
+    assertEquals(2, analysis.getPrincipalVariation()[0][1]);
+  }
+
+  @Test
+  public void agreesWithPerfectPlayTest() {
+    GameBoard gameBoard = startedGame(3, 3);
+    gameBoard.setBoardState(new char[][] {{'X', 0, 0}, {0, 'O', 0}, {0, 0, 'X'}});
+    gameBoard.setTurn(2);
+    Analysis analysis = analyze(gameBoard, 60000);
+    assertEquals(0, analysis.getEvaluation());
+    // O must take an edge, as the table would.
+    int[] best = analysis.getPrincipalVariation()[0];
+    assertEquals(1, (best[0] + best[1]) % 2);
+    assertEquals(1, PerfectPlay.bestMove(gameBoard) % 2);
+  }
+
+  @Test
+  public void symmetricPositionIsNotSearchedAgainTest() {
+    GameBoard gameBoard = startedGame(3, 3);
+    gameBoard.setBoardState(new char[][] {{'X', 0, 0}, {0, 0, 0}, {0, 0, 0}});
+    gameBoard.setTurn(2);
+    Analysis first = analyze(gameBoard, 60000);
+    assertTrue(first.getNodes() > 1);
+
+    GameBoard rotated = startedGame(3, 3);
+    rotated.setBoardState(new char[][] {{0, 0, 0}, {0, 0, 0}, {0, 0, 'X'}});
+    rotated.setTurn(2);
+    Analysis second = analyze(rotated, 60000);
+    assertEquals(first.getEvaluation(), second.getEvaluation());
+    assertEquals(first.getDepth(), second.getDepth());
+    // Each depth of the search is answered by the table at the root.
+    assertEquals(second.getDepth(), (int) second.getNodes());
+    // The best move is the first one turned like the board.
+    assertEquals(2 - first.getPrincipalVariation()[0][0], second.getPrincipalVariation()[0][0]);
+    assertEquals(2 - first.getPrincipalVariation()[0][1], second.getPrincipalVariation()[0][1]);
+  }
+
+  @Test
+  public void largeBoardKeepsBudgetTest() {
+    GameBoard gameBoard = startedGame(15, 5);
+    char[][] boardState = new char[15][15];
+    boardState[7][5] = 'X';
+    boardState[7][6] = 'X';
+    boardState[7][7] = 'X';
+    boardState[7][8] = 'X';
+    boardState[8][7] = 'O';
+    boardState[6][7] = 'O';
+    boardState[9][9] = 'O';
+    gameBoard.setBoardState(boardState);
+    long start = System.nanoTime();
+    Analysis analysis = analyze(gameBoard, 200);
+    assertTrue(System.nanoTime() - start < 2000000000L);
+    assertEquals(GameAnalyzer.WIN - 1, analysis.getEvaluation());
+    assertEquals(7, analysis.getPrincipalVariation()[0][0]);
+    assertTrue(4 == analysis.getPrincipalVariation()[0][1]
+        || 9 == analysis.getPrincipalVariation()[0][1]);
+
+    gameBoard.setBoardState(new char[15][15]);
+    analysis = analyze(gameBoard, 200);
+    assertTrue(analysis.getDepth() >= 1);
+    assertEquals(7, analysis.getPrincipalVariation()[0][0]);
+  }
+
+  private Analysis analyze(GameBoard gameBoard, long budgetMs) {
+    return analyzer.analyze(GameState.of(gameBoard), budgetMs).join();
+  }
+
+  private static GameBoard startedGame(int size, int winLength) {
+    GameBoard gameBoard = new GameBoard(size, winLength);
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    return gameBoard;
+  }
+}
@@ -0,0 +1,94 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import controllers.GameRoom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.GameBoard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class GameRoomTest {
+  private ExecutorService workers;
+
+  @BeforeEach
+  public void startWorkers() {
+    workers = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  public void stopWorkers() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void commandsRunInOrderTest() {
+    GameRoom room = new GameRoom("order", new GameBoard(), workers);
+    List<Integer> ran = new ArrayList<>();
+    List<CompletableFuture<Integer>> futures = new ArrayList<>();
+    for (int n = 0; n < 1000; n++) {
+      int command = n;
+      futures.add(room.submit(() -> {
+        ran.add(command);
+        return command;
+      }));
+    }
+    for (int n = 0; n < 1000; n++) {
+      assertEquals(n, futures.get(n).join().intValue());
+      assertEquals(n, ran.get(n).intValue());
+    }
+  }
+
+  @Test
+  public void commandsRunOneAtATimeTest() throws InterruptedException {
+    GameRoom room = new GameRoom("single", new GameBoard(), workers);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    Thread[] submitters = new Thread[4];
+    for (int t = 0; t < submitters.length; t++) {
+      submitters[t] = new Thread(() -> {
+        for (int n = 0; n < 500; n++) {
+          CompletableFuture<Void> future = room.submit(() -> {
+            if (1 != running.incrementAndGet()) {
+              overlaps.incrementAndGet();
+            }
+            running.decrementAndGet();
+            return null;
+          });
+          synchronized (futures) {
+            futures.add(future);
+          }
+        }
+      });
+      submitters[t].start();
+    }
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    assertEquals(0, overlaps.get());
+    assertEquals(0, room.getMailboxSize());
+  }
+
+  @Test
+  public void commandErrorCompletesTest() {
+    GameRoom room = new GameRoom("error", new GameBoard(), workers);
+    CompletableFuture<Integer> failed = room.submit(() -> {
+      throw new StackOverflowError();
+    });
+    CompletableFuture<Integer> next = room.submit(() -> 2);
+    assertThrows(CompletionException.class, failed::join);
+    // The commands after the one which threw still run.
+    assertEquals(2, next.join().intValue());
+    assertEquals(0, room.getMailboxSize());
+  }
+}
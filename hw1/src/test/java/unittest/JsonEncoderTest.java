@@ -0,0 +1,83 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import models.GameBoard;
+import models.Message;
+import models.Move;
+import models.Player;
+import org.junit.jupiter.api.Test;
+import utils.JsonEncoder;
+
+public class JsonEncoderTest {
+
+  private static final Gson gson = new Gson();
+
+  private static void assertSameBytes(Object model, JsonEncoder encoder) {
+    byte[] expected = gson.toJson(model).getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expected, encoder.toByteArray());
+  }
+
+  @Test
+  public void gameBoardTest() {
+    GameBoard gameBoard = new GameBoard();
+    assertSameBytes(gameBoard, JsonEncoder.local().writeGameBoard(gameBoard));
+    gameBoard.init();
+    assertSameBytes(gameBoard, JsonEncoder.local().writeGameBoard(gameBoard));
+    gameBoard.startGame('O');
+    assertSameBytes(gameBoard, JsonEncoder.local().writeGameBoard(gameBoard));
+    gameBoard.joinGame();
+    assertSameBytes(gameBoard, JsonEncoder.local().writeGameBoard(gameBoard));
+    
+    // Boards of every size along random games, until each is won or drawn.
+    Random random = new Random(4156);
+    for (int size = 1; size <= 12; size++) {
+      gameBoard = new GameBoard(size, Math.min(size, 3));
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      for (int n = 0; n < size * size && 0 == gameBoard.getWinner() && !gameBoard.getIsDraw();
+          n++) {
+        gameBoard.move(random.nextInt(size), random.nextInt(size), gameBoard.getTurn());
+        assertEquals(gson.toJson(gameBoard), JsonEncoder.toJson(gameBoard));
+      }
+    }
+  }
+
+  @Test
+  public void messageTest() {
+    for (int code : new int[] {100, 201, 202, 301, 302, 401, 402, 0, -1, 12345}) {
+      Message message = new Message(code);
+      assertSameBytes(message, JsonEncoder.local().writeMessage(message));
+    }
+    Message message = new Message(100);
+    message.setMessage(null);
+    assertSameBytes(message, JsonEncoder.local().writeMessage(message));
+    message.setMessage("<a href='x'>&=\"\\\n\t\b\f\r\u0001\u007f \u2028\u2029 \u00e9 \u4e2d "
+        + "\ud83d\ude00");
+    assertSameBytes(message, JsonEncoder.local().writeMessage(message));
+    message.setMessage("lone \ud83d surrogate");
+    assertSameBytes(message, JsonEncoder.local().writeMessage(message));
+  }
+
+  @Test
+  public void moveTest() {
+    List<Move> moves = new ArrayList<>();
+    assertSameBytes(moves, JsonEncoder.local().writeMoves(moves));
+    moves.add(new Move(new Player('X', 1), 0, 2));
+    moves.add(new Move(new Player('O', 2), 10, -1));
+    moves.add(new Move(null, 1, 1));
+    assertSameBytes(moves, JsonEncoder.local().writeMoves(moves));
+    assertEquals(gson.toJson(moves.get(0)), JsonEncoder.local().writeMove(moves.get(0)).toString());
+    for (char type : new char[] {'X', '<', '"', '\u0000', '\u00e9'}) {
+      Player player = new Player(type, Integer.MIN_VALUE);
+      assertSameBytes(player, JsonEncoder.local().writePlayer(player));
+    }
+  }
+}
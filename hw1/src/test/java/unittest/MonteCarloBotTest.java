@@ -0,0 +1,85 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+import models.GameBoard;
+import models.GameState;
+import models.MonteCarloBot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MonteCarloBotTest {
+  private ForkJoinPool pool;
+
+  @BeforeEach
+  public void startPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterEach
+  public void stopPool() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void winsAndBlocksTest() {
+    MonteCarloBot bot = new MonteCarloBot(pool, 4, 1000, 60000);
+    GameBoard gameBoard = startedGame(15, 5);
+    char[][] boardState = new char[15][15];
+    boardState[7][5] = 'X';
+    boardState[7][6] = 'X';
+    boardState[7][7] = 'X';
+    boardState[7][8] = 'X';
+    boardState[3][3] = 'O';
+    boardState[3][4] = 'O';
+    boardState[3][5] = 'O';
+    boardState[3][6] = 'O';
+    gameBoard.setBoardState(boardState);
+    // O wins at either end of its own four, rather than block X.
+    gameBoard.setTurn(2);
+    int cell = bot.bestMove(GameState.of(gameBoard)).join();
+    assertTrue(3 * 15 + 2 == cell || 3 * 15 + 7 == cell);
+    // With no four of its own, O blocks X.
+    boardState[3][6] = 0;
+    gameBoard.setBoardState(boardState);
+    cell = bot.bestMove(GameState.of(gameBoard)).join();
+    assertTrue(7 * 15 + 4 == cell || 7 * 15 + 9 == cell);
+    assertEquals(0, bot.getPlayouts());
+  }
+
+  @Test
+  public void playoutBudgetTest() {
+    MonteCarloBot bot = new MonteCarloBot(pool, 4, 2000, 60000);
+    GameBoard gameBoard = startedGame(9, 4);
+    assertEquals(100, gameBoard.move(4, 4, 1).getCode());
+    int cell = bot.bestMove(GameState.of(gameBoard)).join();
+    // The tree only considers the cells next to a mark.
+    assertTrue(Math.abs(cell / 9 - 4) <= 1 && Math.abs(cell % 9 - 4) <= 1 && 4 * 9 + 4 != cell);
+    assertEquals(2000, bot.getPlayouts());
+    assertTrue(bot.getPlayoutsPerSecond() > 0);
+    assertEquals(100, gameBoard.move(cell / 9, cell % 9, 2).getCode());
+  }
+
+  @Test
+  public void timeBudgetTest() {
+    MonteCarloBot bot = new MonteCarloBot(pool, 4, Integer.MAX_VALUE, 200);
+    GameBoard gameBoard = startedGame(30, 5);
+    assertEquals(100, gameBoard.move(15, 15, 1).getCode());
+    long start = System.nanoTime();
+    int cell = bot.bestMove(GameState.of(gameBoard)).join();
+    assertTrue(System.nanoTime() - start < 2000000000L);
+    assertEquals(100, gameBoard.move(cell / 30, cell % 30, 2).getCode());
+    assertTrue(bot.getPlayouts() > 0);
+  }
+
+  private static GameBoard startedGame(int size, int winLength) {
+    GameBoard gameBoard = new GameBoard(size, winLength);
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    return gameBoard;
+  }
+}
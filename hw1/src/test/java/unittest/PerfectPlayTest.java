@@ -0,0 +1,96 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import models.GameBoard;
+import models.PerfectPlay;
+import org.junit.jupiter.api.Test;
+
+public class PerfectPlayTest {
+
+  @Test
+  public void positionCountTest() {
+    // 5478 positions can be reached when X moves first, and as many when O does.
+    assertEquals(2 * 5478, PerfectPlay.getPositionCount());
+  }
+
+  @Test
+  public void neverLosesTest() {
+    for (char type : new char[] {'X', 'O'}) {
+      GameBoard gameBoard = new GameBoard();
+      gameBoard.init();
+      gameBoard.startGame(type);
+      gameBoard.joinGame();
+      assertEquals(0, countLosses(gameBoard));
+    }
+  }
+
+  @Test
+  public void winsAndBlocksTest() {
+    GameBoard gameBoard = startedGame();
+    // O, the computer, wins at (1, 2) rather than block X at (0, 2).
+    gameBoard.setBoardState(new char[][] {{'X', 'X', 0}, {'O', 'O', 0}, {'X', 0, 0}});
+    gameBoard.setTurn(2);
+    assertEquals(5, PerfectPlay.bestMove(gameBoard));
+    // With no win of its own, O blocks X.
+    gameBoard.setBoardState(new char[][] {{'X', 'X', 0}, {'O', 0, 0}, {0, 0, 0}});
+    assertEquals(2, PerfectPlay.bestMove(gameBoard));
+  }
+
+  @Test
+  public void updateStateTest() {
+    GameBoard gameBoard = startedGame();
+    gameBoard.setBoardState(new char[][] {{'O', 'X', 0}, {'O', 'X', 0}, {0, 'X', 0}});
+    gameBoard.updateState();
+    assertEquals(1, gameBoard.getWinner());
+    assertEquals(PerfectPlay.X_WINS, PerfectPlay.outcome(gameBoard));
+
+    gameBoard = startedGame();
+    gameBoard.setBoardState(new char[][] {{'X', 'O', 'X'}, {'X', 'O', 'O'}, {'O', 'X', 'X'}});
+    gameBoard.updateState();
+    assertEquals(0, gameBoard.getWinner());
+    assertEquals(true, gameBoard.getIsDraw());
+    assertEquals(-1, PerfectPlay.bestMove(gameBoard));
+  }
+
+  private static GameBoard startedGame() {
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    return gameBoard;
+  }
+
+  // Play every move of player 1 against the computer, counting the games it loses.
+  private static int countLosses(GameBoard gameBoard) {
+    if (0 != gameBoard.getWinner() || gameBoard.getIsDraw()) {
+      return (1 == gameBoard.getWinner()) ? 1 : 0;
+    }
+    int losses = 0;
+    for (int cell = 0; cell < 9; cell++) {
+      if (0 != gameBoard.getCell(cell / 3, cell % 3)) {
+        continue;
+      }
+      GameBoard next = copy(gameBoard);
+      assertEquals(100, next.move(cell / 3, cell % 3, 1).getCode());
+      if (0 == next.getWinner() && !next.getIsDraw()) {
+        int answer = PerfectPlay.bestMove(next);
+        assertTrue(answer >= 0);
+        assertEquals(100, next.move(answer / 3, answer % 3, 2).getCode());
+      }
+      losses += countLosses(next);
+    }
+    return losses;
+  }
+
+  private static GameBoard copy(GameBoard gameBoard) {
+    GameBoard copy = new GameBoard();
+    copy.setPlayer1(gameBoard.getPlayer1());
+    copy.setPlayer2(gameBoard.getPlayer2());
+    copy.setGamestarted(gameBoard.getGamestarted());
+    copy.setTurn(gameBoard.getTurn());
+    copy.setBoardState(gameBoard.getBoardState());
+    return copy;
+  }
+}
@@ -0,0 +1,229 @@
+package unittest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import controllers.BoardSnapshot;
+import controllers.GameSubscriptions;
+import controllers.OutboxStats;
+import controllers.SessionOutbox;
+import java.nio.ByteBuffer;
+import models.GameBoard;
+import models.GameState;
+import models.Move;
+import org.eclipse.jetty.websocket.api.RemoteEndpoint;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.StatusCode;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionOutboxTest {
+  private Session session;
+  private RemoteEndpoint remote;
+  private OutboxStats stats;
+
+  /**
+   * A session whose writes complete only when the test says so.
+   */
+  @BeforeEach
+  public void createSession() {
+    session = mock(Session.class);
+    remote = mock(RemoteEndpoint.class);
+    when(session.getRemote()).thenReturn(remote);
+    stats = new OutboxStats();
+  }
+
+  @Test
+  public void newerBoardReplacesUnsentTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.JSON, 4, 60000, stats);
+    outbox.offer("board1", true);
+    outbox.offer("board2", true);
+    outbox.offer("board3", true);
+    verify(remote).sendString(eq("board1"), any(WriteCallback.class));
+    assertEquals(2, outbox.getDepth());
+    assertEquals(1, stats.getDroppedFrames());
+
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("board3"), any(WriteCallback.class));
+    verify(remote, never()).sendString(eq("board2"), any(WriteCallback.class));
+    outbox.writeSuccess();
+    assertEquals(0, outbox.getDepth());
+    assertEquals(0, stats.getQueuedFrames());
+  }
+
+  @Test
+  public void fullOutboxDropsOldestTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.SPECTATOR,
+            GameSubscriptions.Protocol.JSON, 2, 60000, stats);
+    for (int n = 1; n <= 4; n++) {
+      outbox.offer("frame" + n, false);
+    }
+    // One frame is being written and the two newest wait behind it.
+    assertEquals(3, stats.getQueuedFrames());
+    assertEquals(1, stats.getDroppedFrames());
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("frame3"), any(WriteCallback.class));
+    verify(remote, never()).sendString(eq("frame2"), any(WriteCallback.class));
+  }
+
+  @Test
+  public void fullOutboxKeepsRepliesTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.DELTA, 2, 60000, stats);
+    outbox.offer("delta1", false);
+    outbox.reply("reply1");
+    outbox.offer("delta2", false);
+    outbox.offer("delta3", false);
+    // The oldest frame which is not a reply is dropped.
+    assertEquals(1, stats.getDroppedFrames());
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("reply1"), any(WriteCallback.class));
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("delta3"), any(WriteCallback.class));
+    verify(remote, never()).sendString(eq("delta2"), any(WriteCallback.class));
+  }
+
+  @Test
+  public void outboxOfRepliesIsClosedTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.JSON, 1, 60000, stats);
+    outbox.reply("reply1");
+    outbox.reply("reply2");
+    verify(session, never()).close(anyInt(), anyString());
+    outbox.reply("reply3");
+    verify(session).close(eq(StatusCode.POLICY_VIOLATION), anyString());
+    assertEquals(0, stats.getDroppedFrames());
+    assertEquals(1, stats.getEvictedSessions());
+  }
+
+  @Test
+  public void sessionOverLimitIsClosedTest() throws InterruptedException {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.SPECTATOR,
+            GameSubscriptions.Protocol.DELTA, 2, 50, stats);
+    // Every write completes in time, but the frames come faster than they are written.
+    for (int n = 0; n < 20 && 0 == stats.getEvictedSessions(); n++) {
+      outbox.offer("delta" + (3 * n), false);
+      outbox.offer("delta" + (3 * n + 1), false);
+      outbox.offer("delta" + (3 * n + 2), false);
+      outbox.writeSuccess();
+      Thread.sleep(10);
+    }
+    verify(session).close(eq(StatusCode.POLICY_VIOLATION), anyString());
+    assertEquals(1, stats.getEvictedSessions());
+  }
+
+  @Test
+  public void slowSessionIsClosedTest() throws InterruptedException {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.JSON, 4, 0, stats);
+    outbox.offer("board1", true);
+    Thread.sleep(5);
+    outbox.offer("board2", true);
+    verify(session).close(eq(StatusCode.POLICY_VIOLATION), anyString());
+    assertEquals(1, stats.getEvictedSessions());
+
+    // Nothing is queued after the session is closed.
+    outbox.offer("board3", true);
+    outbox.writeFailed(new IllegalStateException("closed"));
+    assertEquals(0, stats.getQueuedFrames());
+  }
+
+  @Test
+  public void replyIsNotReplacedTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.JSON, 4, 60000, stats);
+    outbox.offer("board1", true);
+    outbox.offer("board2", true);
+    outbox.reply("reply2");
+    outbox.offer("board3", true);
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("reply2"), any(WriteCallback.class));
+    outbox.writeSuccess();
+    verify(remote).sendString(eq("board3"), any(WriteCallback.class));
+    verify(remote, never()).sendString(eq("board2"), any(WriteCallback.class));
+    assertEquals(1, stats.getDroppedFrames());
+  }
+
+  @Test
+  public void deltaSessionGetsMovesTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.SPECTATOR,
+            GameSubscriptions.Protocol.DELTA, 4, 60000, stats);
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    BoardSnapshot first = new BoardSnapshot(1, GameState.of(gameBoard), null);
+    outbox.offer(first);
+    verify(remote).sendString(eq("{\"version\":1,\"board\":" + first.getJson() + "}"),
+        any(WriteCallback.class));
+
+    gameBoard.move(0, 2, 1);
+    Move move = new Move(gameBoard.getPlayer1(), 0, 2);
+    outbox.offer(new BoardSnapshot(2, GameState.of(gameBoard), move));
+    outbox.writeSuccess();
+    verify(remote).sendString(
+        eq("{\"version\":2,\"cell\":[0,2],\"mark\":\"X\",\"turn\":2,\"winner\":0,"
+            + "\"isDraw\":false}"), any(WriteCallback.class));
+  }
+
+  @Test
+  public void deltaBeforeBoardIsSkippedTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.SPECTATOR,
+            GameSubscriptions.Protocol.DELTA, 4, 60000, stats);
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    gameBoard.move(0, 2, 1);
+    BoardSnapshot second =
+        new BoardSnapshot(2, GameState.of(gameBoard), new Move(gameBoard.getPlayer1(), 0, 2));
+    outbox.offer(second);
+    verify(remote, never()).sendString(anyString(), any(WriteCallback.class));
+
+    outbox.offerFull(second);
+    verify(remote).sendString(eq("{\"version\":2,\"board\":" + second.getJson() + "}"),
+        any(WriteCallback.class));
+  }
+
+  @Test
+  public void binarySessionGetsBytesTest() {
+    SessionOutbox outbox =
+        new SessionOutbox(session, GameSubscriptions.Role.PLAYER,
+            GameSubscriptions.Protocol.BINARY, 4, 60000, stats);
+    GameBoard gameBoard = new GameBoard();
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    BoardSnapshot first = new BoardSnapshot(1, GameState.of(gameBoard), null);
+    outbox.offer(first);
+    verify(remote).sendBytes(eq(ByteBuffer.wrap(first.getBinaryBoard())),
+        any(WriteCallback.class));
+
+    gameBoard.move(1, 1, 1);
+    BoardSnapshot second =
+        new BoardSnapshot(2, GameState.of(gameBoard), new Move(gameBoard.getPlayer1(), 1, 1));
+    outbox.offer(second);
+    outbox.writeSuccess();
+    verify(remote).sendBytes(eq(ByteBuffer.wrap(second.getBinaryMove())),
+        any(WriteCallback.class));
+    verify(remote, never()).sendString(anyString(), any(WriteCallback.class));
+  }
+}
@@ -1,8 +1,12 @@
 package unittest;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import com.google.gson.Gson;
 import models.GameBoard;
+import models.GameState;
 import models.Message;
 import models.Move;
 import org.junit.jupiter.api.BeforeEach;
@@ -306,4 +310,124 @@ public class UnitTest {
     gameBoard.updateState();
     assertEquals(2, gameBoard.getWinner());   
   }
+  
+  /**
+   * Test that the positions loaded by setBoardState are used by move and updateState.
+   */
+  @Test
+  public void testSetBoardStateThenMove() {
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    char[][] boardState = new char[3][3];
+    boardState[0][0] = 'X';
+    boardState[1][1] = 'O';
+    boardState[0][1] = 'X';
+    gameBoard.setBoardState(boardState);
+    assertEquals(3, gameBoard.checkUsedPosition());
+    assertEquals(202, gameBoard.move(1, 1, 1).getCode());
+    assertEquals(100, gameBoard.move(0, 2, 1).getCode());
+    assertEquals(1, gameBoard.getWinner());
+    assertEquals('X', gameBoard.getBoardState()[0][2]);
+  }
+  
+  /**
+   * Test that a gameBoard read back from JSON rebuilds its positions before it moves.
+   */
+  @Test
+  public void testMoveAfterJson() {
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    gameBoard.move(0, 0, 1);
+    gameBoard.move(1, 1, 2);
+    gameBoard.move(0, 1, 1);
+    Gson gson = new Gson();
+    GameBoard copy = gson.fromJson(gson.toJson(gameBoard), GameBoard.class);
+    assertEquals(3, copy.checkUsedPosition());
+    assertEquals(202, copy.move(1, 1, 2).getCode());
+    assertEquals(100, copy.move(2, 2, 2).getCode());
+    assertEquals(100, copy.move(0, 2, 1).getCode());
+    assertEquals(1, copy.getWinner());
+  }
+  
+  /**
+   * Test five in a row on a 15 x 15 board, in every direction.
+   */
+  @Test
+  public void testFiveInARowOnLargeBoard() {
+    int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    for (int[] d : directions) {
+      gameBoard = new GameBoard(15, 5);
+      gameBoard.init();
+      gameBoard.startGame('X');
+      gameBoard.joinGame();
+      // Player 1 fills the line around (7, 7) from both ends, player 2 plays in row 0.
+      int[] order = {0, 1, -1, 2};
+      for (int k = 0; k < order.length; k++) {
+        assertEquals(100, gameBoard.move(7 + order[k] * d[0], 7 + order[k] * d[1], 1).getCode());
+        assertEquals(100, gameBoard.move(0, k * 2, 2).getCode());
+      }
+      assertEquals(0, gameBoard.getWinner());
+      assertEquals(100, gameBoard.move(7 - 2 * d[0], 7 - 2 * d[1], 1).getCode());
+      assertEquals(1, gameBoard.getWinner());
+      assertEquals(401, gameBoard.move(14, 14, 2).getCode());
+    }
+  }
+  
+  /**
+   * Test the bounds and the draw of a board which is not 3 x 3.
+   */
+  @Test
+  public void testDrawOnSmallBoard() {
+    gameBoard = new GameBoard(2, 2);
+    gameBoard.init();
+    gameBoard.startGame('O');
+    gameBoard.joinGame();
+    assertEquals(201, gameBoard.move(2, 0, 1).getCode());
+    assertEquals(100, gameBoard.move(0, 0, 1).getCode());
+    assertEquals(100, gameBoard.move(0, 1, 2).getCode());
+    assertEquals(100, gameBoard.move(1, 1, 1).getCode());
+    assertEquals(1, gameBoard.getWinner());
+    assertEquals(false, gameBoard.getIsDraw());
+    
+    gameBoard = new GameBoard(4, 4);
+    gameBoard.init();
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    // Fill the board by columns in pairs so that neither player gets four in a row.
+    int[][] cells = {{0, 0}, {0, 1}, {1, 0}, {1, 1}, {2, 1}, {2, 0}, {3, 1}, {3, 0},
+        {0, 2}, {0, 3}, {1, 2}, {1, 3}, {2, 3}, {2, 2}, {3, 3}, {3, 2}};
+    for (int k = 0; k < cells.length; k++) {
+      assertEquals(100, gameBoard.move(cells[k][0], cells[k][1], k % 2 + 1).getCode());
+    }
+    assertEquals(0, gameBoard.getWinner());
+    assertEquals(true, gameBoard.getIsDraw());
+  }
+  
+  /**
+   * Test that an invalid size or win length is rejected.
+   */
+  @Test
+  public void testInvalidBoardSize() {
+    assertThrows(IllegalArgumentException.class, () -> new GameBoard(0, 1));
+    assertThrows(IllegalArgumentException.class, () -> new GameBoard(3, 4));
+    assertThrows(IllegalArgumentException.class, 
+        () -> new GameBoard(GameBoard.MAX_SIZE + 1, 5));
+  }
+  
+  /**
+   * Test that a version made by a move leaves the version before it as it was.
+   */
+  @Test
+  public void testGameStateAfterMove() {
+    gameBoard.startGame('X');
+    gameBoard.joinGame();
+    GameState before = GameState.of(gameBoard);
+    gameBoard.move(1, 2, 1);
+    GameState after = before.next(gameBoard, new Move(gameBoard.getPlayer1(), 1, 2));
+    assertEquals(0, before.getCell(1, 2));
+    assertEquals(1, before.getTurn());
+    assertEquals('X', after.getCell(1, 2));
+    assertEquals(2, after.getTurn());
+    assertArrayEquals(gameBoard.getBoardState(), after.getBoardState());
+  }
 }